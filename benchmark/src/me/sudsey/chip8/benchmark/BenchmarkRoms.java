@@ -0,0 +1,59 @@
+package me.sudsey.chip8.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+// ROMs for the benchmarks. Names starting with "builtin:" are the small test programs below; anything else is read
+// from romDir, so real games can be benchmarked with e.g. `-p rom=BRIX,PONG -p romDir=/path/to/games`.
+
+public class BenchmarkRoms {
+
+    // Draws random digits across the screen, with a CALL/RET, BCD conversion, register loads and stores, the delay
+    // timer and every 8xyN ALU operation in its main loop.
+    private static final int[] LOOP = new int[] {
+            0x60, 0x00, 0x61, 0x00, 0x62, 0x00, 0x6E, 0x00, 0xC3, 0x0F, 0xF3, 0x29,
+            0xD1, 0x25, 0x71, 0x05, 0x31, 0x3C, 0x12, 0x1C, 0x61, 0x00, 0x72, 0x06,
+            0x64, 0x1F, 0x82, 0x42, 0x22, 0x58, 0x70, 0x01, 0x40, 0x00, 0x7E, 0x01,
+            0x65, 0x6A, 0x86, 0x00, 0xA2, 0x34, 0x66, 0x00, 0xA2, 0x64, 0xF0, 0x33,
+            0xF2, 0x65, 0x12, 0x36, 0x6A, 0x00, 0xA2, 0x60, 0xF0, 0x65, 0xF7, 0x15,
+            0xF8, 0x07, 0x88, 0x94, 0x89, 0x85, 0x8A, 0x96, 0x8B, 0xAE, 0x8C, 0xB7,
+            0x8D, 0xC3, 0x8D, 0xC1, 0x8D, 0xC2, 0x9D, 0xC0, 0x7D, 0x01, 0x5D, 0xC0,
+            0x7D, 0x02, 0x12, 0x08, 0xA2, 0x60, 0xF2, 0x55, 0x67, 0x03, 0x00, 0xEE,
+            0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+    };
+
+    // The same program, except that an LD_I_Vx at 0x22A stores registers over part of its own main loop every iteration, so
+    // decoded instructions and recompiled blocks are constantly invalidated.
+    private static final int[] SELF_MODIFYING = new int[] {
+            0x60, 0x00, 0x61, 0x00, 0x62, 0x00, 0x6E, 0x00, 0xC3, 0x0F, 0xF3, 0x29,
+            0xD1, 0x25, 0x71, 0x05, 0x31, 0x3C, 0x12, 0x1C, 0x61, 0x00, 0x72, 0x06,
+            0x64, 0x1F, 0x82, 0x42, 0x22, 0x58, 0x70, 0x01, 0x40, 0x00, 0x7E, 0x01,
+            0x65, 0x6A, 0x86, 0x00, 0xA2, 0x34, 0xF6, 0x55, 0xA2, 0x64, 0xF0, 0x33,
+            0xF2, 0x65, 0x12, 0x36, 0x6A, 0x00, 0xA2, 0x60, 0xF0, 0x65, 0xF7, 0x15,
+            0xF8, 0x07, 0x88, 0x94, 0x89, 0x85, 0x8A, 0x96, 0x8B, 0xAE, 0x8C, 0xB7,
+            0x8D, 0xC3, 0x8D, 0xC1, 0x8D, 0xC2, 0x9D, 0xC0, 0x7D, 0x01, 0x5D, 0xC0,
+            0x7D, 0x02, 0x12, 0x08, 0xA2, 0x60, 0xF2, 0x55, 0x67, 0x03, 0x00, 0xEE,
+            0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+    };
+
+
+    public static byte[] load(String name, String romDir) throws IOException {
+        switch (name) {
+            case "builtin:loop":            return toBytes(LOOP);
+            case "builtin:self-modifying":  return toBytes(SELF_MODIFYING);
+        }
+
+        return Files.readAllBytes(Paths.get(romDir).resolve(name));
+    }
+
+    private static byte[] toBytes(int[] rom) {
+        byte[] bytes = new byte[rom.length];
+        for (int i = 0; i < rom.length; i++) {
+            bytes[i] = (byte) rom[i];
+        }
+
+        return bytes;
+    }
+
+}
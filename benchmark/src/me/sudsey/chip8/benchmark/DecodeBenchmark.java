@@ -0,0 +1,50 @@
+package me.sudsey.chip8.benchmark;
+
+import me.sudsey.chip8.commons.Instruction;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Decoding through Instruction.parseInstructionBytes, over every 16-bit word in a shuffled order.
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(DecodeBenchmark.WORDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    static final int WORDS = 0x10000;
+
+
+    private int[] words;
+
+    @Setup
+    public void setup() {
+        words = new int[WORDS];
+        for (int i = 0; i < WORDS; i++) {
+            words[i] = i;
+        }
+
+        Random random = new Random(0);
+        for (int i = WORDS - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int word = words[i];
+            words[i] = words[j];
+            words[j] = word;
+        }
+    }
+
+
+    @Benchmark
+    public void parseInstructionBytes(Blackhole blackhole) {
+        for (int word : words) {
+            blackhole.consume(Instruction.parseInstructionBytes(word));
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+package me.sudsey.chip8.benchmark;
+
+import me.sudsey.chip8.disassemble.Disassembler;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Disassembling a ROM-sized block of random words, to an output stream that discards everything.
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(DisassemblerBenchmark.ROM_SIZE / 2)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DisassemblerBenchmark {
+
+    static final int ROM_SIZE = 0xE00;
+
+
+    private byte[] rom;
+    private PrintStream out;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+
+        rom = new byte[ROM_SIZE];
+        random.nextBytes(rom);
+
+        out = new PrintStream(OutputStream.nullOutputStream());
+    }
+
+
+    @Benchmark
+    public void disassemble() {
+        Disassembler.disassemble(rom, out);
+    }
+
+}
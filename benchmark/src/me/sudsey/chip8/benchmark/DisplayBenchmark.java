@@ -0,0 +1,83 @@
+package me.sudsey.chip8.benchmark;
+
+import me.sudsey.chip8.interpret.DisplayTexture;
+import me.sudsey.chip8.interpret.Memory;
+import me.sudsey.chip8.interpret.Screen;
+import me.sudsey.chip8.interpret.VirtualDisplay;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// DRW in wrap and clip modes, and building the Terminal's texture from the display.
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DisplayBenchmark {
+
+    private static final int POSITIONS = 256;
+
+
+    @Param({"false", "true"})
+    public boolean clipEdges;
+
+    private VirtualDisplay display;
+    private Memory memory;
+    private int[] xPositions;
+    private int[] yPositions;
+    private int position;
+
+    private DisplayTexture texture;
+    private long[][] frames;
+    private int frame;
+
+    @Setup
+    public void setup() {
+        display = new VirtualDisplay(Screen.NONE);
+        memory = new Memory();
+
+        // Positions cover the whole 8-bit register range, so plenty of sprites cross the edges
+        Random random = new Random(0);
+        xPositions = new int[POSITIONS];
+        yPositions = new int[POSITIONS];
+        for (int i = 0; i < POSITIONS; i++) {
+            xPositions[i] = random.nextInt(256);
+            yPositions[i] = random.nextInt(256);
+        }
+
+        texture = new DisplayTexture();
+        frames = new long[64][32];
+        for (long[] frame : frames) {
+            for (int y = 0; y < 32; y++) {
+                frame[y] = random.nextLong();
+            }
+        }
+    }
+
+
+    // A 15-byte sprite, taken from the font data
+    @Benchmark
+    public boolean drawSprite() {
+        position = (position + 1) & (POSITIONS - 1);
+
+        return display.drawSprite(xPositions[position], yPositions[position], memory, 0, 15, clipEdges);
+    }
+
+    // Worst case for the texture, a completely different random frame every time
+    @Benchmark
+    public boolean textureChangedFrame() {
+        frame = (frame + 1) & 63;
+
+        return texture.update(frames[frame], true);
+    }
+
+    @Benchmark
+    public boolean textureUnchangedFrame() {
+        return texture.update(frames[0], false);
+    }
+
+}
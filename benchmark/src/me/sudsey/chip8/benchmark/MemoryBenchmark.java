@@ -0,0 +1,83 @@
+package me.sudsey.chip8.benchmark;
+
+import me.sudsey.chip8.interpret.Memory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Memory access patterns: sequential and random reads, fetching decoded instructions with and without writes
+// invalidating them, and writes.
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(MemoryBenchmark.ACCESSES)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MemoryBenchmark {
+
+    static final int ACCESSES = 4096;
+
+
+    private Memory memory;
+    private int[] randomAddresses;
+
+    @Setup
+    public void setup() throws Exception {
+        memory = new Memory();
+        memory.loadROM(BenchmarkRoms.load("builtin:loop", null));
+
+        Random random = new Random(0);
+        randomAddresses = new int[ACCESSES];
+        for (int i = 0; i < ACCESSES; i++) {
+            randomAddresses[i] = random.nextInt(Memory.SIZE - 1);
+        }
+    }
+
+
+    @Benchmark
+    public void sequentialReads(Blackhole blackhole) {
+        for (int address = 0; address < ACCESSES; address++) {
+            blackhole.consume(memory.getLocation(address));
+        }
+    }
+
+    @Benchmark
+    public void randomReads(Blackhole blackhole) {
+        for (int address : randomAddresses) {
+            blackhole.consume(memory.getLocation(address));
+        }
+    }
+
+    @Benchmark
+    public void writes() {
+        for (int address : randomAddresses) {
+            memory.setLocation(address, address & 0xFF);
+        }
+    }
+
+    // Instruction fetches over the program, as the processor does in a loop. All hits after the first pass.
+    @Benchmark
+    public void instructionFetches(Blackhole blackhole) {
+        for (int i = 0; i < ACCESSES; i++) {
+            blackhole.consume(memory.getInstruction(0x200 + (i & 0x3F) * 2));
+        }
+    }
+
+    // The same fetches with a write into the program every 16 fetches, as self-modifying code does.
+    @Benchmark
+    public void instructionFetchesWithWrites(Blackhole blackhole) {
+        for (int i = 0; i < ACCESSES; i++) {
+            int address = 0x200 + (i & 0x3F) * 2;
+
+            if ((i & 0xF) == 0) {
+                memory.setLocation(address + 1, memory.getLocation(address + 1));
+            }
+            blackhole.consume(memory.getInstruction(address));
+        }
+    }
+
+}
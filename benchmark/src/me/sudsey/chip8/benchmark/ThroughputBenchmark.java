@@ -0,0 +1,60 @@
+package me.sudsey.chip8.benchmark;
+
+import me.sudsey.chip8.commons.Options;
+import me.sudsey.chip8.interpret.Buzzer;
+import me.sudsey.chip8.interpret.Machine;
+import me.sudsey.chip8.interpret.Screen;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// End-to-end headless throughput, in instructions per microsecond. The ROM is loaded once per iteration and each
+// invocation runs it for another million instructions, so the JIT is measured once warmed up rather than recompiling.
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(ThroughputBenchmark.INSTRUCTIONS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThroughputBenchmark {
+
+    static final int INSTRUCTIONS = 1000000;
+
+
+    @Param({"builtin:loop", "builtin:self-modifying"})
+    public String rom;
+
+    @Param({""})
+    public String romDir;
+
+    // Passed to Options.parseOptions, e.g. "--jit" or "--ips 100000"
+    @Param({"", "--jit"})
+    public String options;
+
+    private Machine machine;
+    private byte[] romData;
+
+    @Setup
+    public void setup() throws Exception {
+        Options parsed = Options.parseOptions(options.isEmpty() ? new String[0] : options.split(" "));
+
+        machine = new Machine(parsed, Screen.NONE, Buzzer.NONE);
+        romData = BenchmarkRoms.load(rom, romDir);
+    }
+
+    @Setup(Level.Iteration)
+    public void load() {
+        machine.load(romData);
+    }
+
+
+    @Benchmark
+    public long run() {
+        machine.run(Long.MAX_VALUE, machine.getProcessor().getInstructions() + INSTRUCTIONS);
+
+        return machine.getProcessor().getPc();
+    }
+
+}
@@ -1,36 +1,60 @@
 package me.sudsey.chip8;
 
+import me.sudsey.chip8.batch.BatchRunner;
 import me.sudsey.chip8.commons.Options;
+import me.sudsey.chip8.disassemble.BlockMap;
+import me.sudsey.chip8.disassemble.CorpusDisassembler;
 import me.sudsey.chip8.disassemble.Disassembler;
 import me.sudsey.chip8.interpret.Interpreter;
+import me.sudsey.chip8.pool.PoolRunner;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 public class Main {
 
     public static void main(String[] args) {
         if (args.length < 2) {
-            System.err.println("Usage: java -jar " + getExecutableName() + " (run|disassemble) <rom-path> [options]");
+            System.err.println("Usage: java -jar " + getExecutableName() + " (run|headless|disassemble|pool) <rom-path> [options]");
+            System.err.println("       java -jar " + getExecutableName() + " batch <rom-directory> [options]");
+            System.err.println("       java -jar " + getExecutableName() + " corpus <rom-directory-or-zip> [options]");
             return;
         }
 
-        int[] rom;
+        Options options;
         try {
-            rom = getROM(Paths.get(args[1]));
-        } catch (IOException e) {
-            System.err.println("Could not read ROM file. Error: " + e.toString());
+            options = Options.parseOptions(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+
+        if (args[0].equals("batch")) {
+            BatchRunner.run(options, Paths.get(args[1]));
+            return;
+        }
+        if (args[0].equals("corpus")) {
+            CorpusDisassembler.run(options, Paths.get(args[1]));
             return;
         }
 
-        Options options = Options.parseOptions(args);
+        Path romPath = Paths.get(args[1]);
+
         switch (args[0]) {
-            case "run":         Interpreter.run(options, rom);  break;
-            case "disassemble": Disassembler.disassemble(rom);
+            case "run":         Interpreter.run(options, romPath);          break;
+            case "headless":    Interpreter.runHeadless(options, romPath);  break;
+            case "disassemble": disassemble(options, romPath);          break;
+            case "pool":        PoolRunner.run(options, romPath);
         }
     }
 
@@ -42,15 +66,47 @@ public class Main {
         }
     }
 
-    private static int[] getROM(Path path) throws IOException {
-        byte[] romBytes = Files.readAllBytes(path);
+    private static void disassemble(Options options, Path romPath) {
+        byte[] rom;
+        try {
+            rom = Files.readAllBytes(romPath);
+        } catch (IOException e) {
+            System.err.println("Could not read ROM file. Error: " + e.toString());
+            return;
+        }
+
+        if (options.isFlow() && !options.getFormat().equals("text")) {
+            System.err.println("--flow only writes the text format");
+            return;
+        }
+
+        Disassembler disassembler = new Disassembler(Disassembler.Format.valueOf(options.getFormat().toUpperCase()));
 
-        int[] rom = new int[romBytes.length];
-        for (int i = 0; i < romBytes.length; i++) {
-            rom[i] = romBytes[i] & 0xFF;
+        if (options.getOutput() == null) {
+            // Straight to the file descriptor, rather than through System.out and its lock and encoder
+            try {
+                disassemble(options, disassembler, rom, Channels.newChannel(new FileOutputStream(FileDescriptor.out)));
+            } catch (IOException e) {
+                System.err.println("Could not write disassembly. Error: " + e.toString());
+            }
+            return;
         }
 
-        return rom;
+        try (FileChannel out = FileChannel.open(Paths.get(options.getOutput()), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            disassemble(options, disassembler, rom, out);
+        } catch (IOException e) {
+            System.err.println("Could not write disassembly. Error: " + e.toString());
+        }
+    }
+
+    private static void disassemble(Options options, Disassembler disassembler, byte[] rom, WritableByteChannel out)
+            throws IOException {
+        if (options.isFlow()) {
+            disassembler.disassembleBlocks(rom, BlockMap.analyze(rom), out);
+        } else {
+            disassembler.disassemble(rom, out);
+        }
     }
 
 }
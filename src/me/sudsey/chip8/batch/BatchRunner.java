@@ -0,0 +1,212 @@
+package me.sudsey.chip8.batch;
+
+import me.sudsey.chip8.commons.Instruction;
+import me.sudsey.chip8.commons.Options;
+import me.sudsey.chip8.interpret.Buzzer;
+import me.sudsey.chip8.interpret.Machine;
+import me.sudsey.chip8.interpret.Memory;
+import me.sudsey.chip8.interpret.Processor;
+import me.sudsey.chip8.interpret.Screen;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Runs every ROM in a directory headless, spread over a fixed pool of worker threads, then writes a compatibility
+// report and lists what changed since the previous one. Each ROM gets its own Machine, so nothing is shared between
+// workers.
+//
+// A ROM named X can have its input scripted by a file named X.input next to it, see InputScript.
+
+public class BatchRunner {
+
+    private static final String INPUT_SUFFIX = ".input";
+
+
+    public static void run(Options options, Path romDirectory) {
+        if (options.isWallClockTimers()) {
+            System.err.println("Batch runs can't use --wall-clock-timers");
+            return;
+        }
+
+        List<Path> roms;
+        try {
+            roms = listROMs(romDirectory, Paths.get(options.getReport()));
+        } catch (IOException e) {
+            System.err.println("Could not list ROM directory. Error: " + e.toString());
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(options.getThreads());
+
+        List<Future<RomResult>> futures = new ArrayList<>();
+        for (Path rom : roms) {
+            futures.add(workers.submit(() -> runROM(options, rom)));
+        }
+
+        List<RomResult> results = new ArrayList<>();
+        try {
+            for (Future<RomResult> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            System.err.println("Batch run interrupted. Error: " + e.toString());
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            System.err.println("Batch run failed. Error: " + e.toString());
+            return;
+        } finally {
+            workers.shutdownNow();
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+
+        CompatibilityReport report = new CompatibilityReport(describeSettings(options), results);
+        System.out.print(report.format());
+        System.out.println();
+        System.out.println(String.format("Ran %d ROMs on %d threads in %.2fs", roms.size(), options.getThreads(),
+                elapsed / 1e9));
+
+        Path reportPath = Paths.get(options.getReport());
+        try {
+            CompatibilityReport previous = CompatibilityReport.read(reportPath);
+            report.write(reportPath);
+
+            if (previous == null) {
+                System.out.println("No previous report at " + reportPath + " to compare against");
+            } else {
+                List<String> changes = report.diff(previous);
+
+                System.out.println(changes.isEmpty() ? "No changes since the previous run" :
+                        changes.size() + " change(s) since the previous run:");
+                for (String change : changes) {
+                    System.out.println("  " + change);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not update report " + reportPath + ". Error: " + e.toString());
+        }
+    }
+
+
+    private static List<Path> listROMs(Path romDirectory, Path report) throws IOException {
+        try (Stream<Path> files = Files.list(romDirectory)) {
+            return files
+                    .filter(Files::isRegularFile)
+                    .filter(path -> !isIgnored(path, report))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    // Input scripts, text files (the games pack comes with a readme) and our own report aren't ROMs
+    private static boolean isIgnored(Path path, Path report) {
+        String name = path.getFileName().toString();
+
+        try {
+            if (Files.exists(report) && Files.isSameFile(path, report)) {
+                return true;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+
+        return name.startsWith(".") || name.endsWith(INPUT_SUFFIX) || name.toLowerCase().endsWith(".txt");
+    }
+
+    private static RomResult runROM(Options options, Path path) {
+        String name = path.getFileName().toString();
+        long startTime = System.nanoTime();
+
+        Machine machine = new Machine(options, Screen.NONE, Buzzer.NONE);
+        long romSize;
+        InputScript input;
+        try {
+            romSize = Files.size(path);
+            machine.load(path);
+
+            Path inputPath = path.resolveSibling(name + INPUT_SUFFIX);
+            input = Files.exists(inputPath) ? InputScript.read(inputPath) : InputScript.NONE;
+        } catch (IOException e) {
+            return new RomResult(name, RomResult.NOT_RUN, 0, 0, 0, "-", e.toString());
+        } catch (IllegalArgumentException e) {
+            return new RomResult(name, RomResult.NOT_RUN, 0, 0, 0, "-", e.getMessage());
+        }
+
+        Processor processor = machine.getProcessor();
+
+        String status;
+        String notes = input == InputScript.NONE ? "" : input.getEvents() + " scripted key events";
+
+        try {
+            input.run(machine, options.getFrames(), options.getInstructions());
+
+            if (processor.isWaitingForKey()) {
+                status = RomResult.WAITING;
+            } else if (machine.getDisplay().isBlank()) {
+                status = RomResult.BLANK;
+            } else {
+                status = RomResult.RUNNING;
+            }
+        } catch (RuntimeException e) {
+            // e.g. CALL past the 16th stack level, or RET with nothing on the stack
+            status = RomResult.CRASHED;
+            notes = describeCrash(machine.getMemory(), processor, e);
+        }
+
+        if (romSize > Memory.MAX_ROM_SIZE) {
+            notes = (notes.isEmpty() ? "" : notes + "; ") + "ROM truncated from " + romSize + " bytes";
+        }
+
+        return new RomResult(name, status, processor.getFrames(), processor.getInstructions(),
+                System.nanoTime() - startTime, String.format("%016x", machine.getDisplay().getContentHash()), notes);
+    }
+
+    private static String describeCrash(Memory memory, Processor processor, RuntimeException e) {
+        int pc = processor.getPc();
+
+        // e.g. a jump to the last byte of memory, which crashes fetching the instruction we'd describe
+        if (pc < 0 || pc + 1 >= Memory.SIZE) {
+            return String.format("%s with PC out of range at 0x%04x", e.getClass().getSimpleName(), pc);
+        }
+
+        String where;
+        try {
+            Instruction instruction = memory.getInstruction(pc);
+            where = instruction != null ? instruction.getOpcode().name() : "DATA";
+        } catch (RuntimeException describing) {
+            // Still a crashed ROM rather than a failed batch, just with less detail
+            where = "unknown instruction";
+        }
+
+        return String.format("%s in %s at 0x%04x", e.getClass().getSimpleName(), where, pc);
+    }
+
+    // Everything that affects the outcome, so the diff can point out when runs aren't comparable
+    private static String describeSettings(Options options) {
+        StringBuilder builder = new StringBuilder();
+
+        builder.append(String.format("%d frames, %d instructions per second, seed %d",
+                options.getFrames(), options.getInstructionsPerSecond(), options.getSeed()));
+        if (options.getInstructions() != Long.MAX_VALUE) {
+            builder.append(", at most ").append(options.getInstructions()).append(" instructions");
+        }
+        if (options.isClipEdges()) {
+            builder.append(", clipping edges");
+        }
+
+        return builder.toString();
+    }
+
+}
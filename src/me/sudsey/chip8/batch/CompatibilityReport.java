@@ -0,0 +1,162 @@
+package me.sudsey.chip8.batch;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// A table of batch results in the style of COMPATIBILITY.txt, which can be written out and read back in to compare
+// against the next run.
+
+public class CompatibilityReport {
+
+    private static final String TITLE = "Automated compatibility report, generated by the batch command";
+    private static final String SETTINGS = "Settings: ";
+    private static final String[] COLUMNS =
+            {"Game", "Status", "Frames", "Instructions", "Time", "Framebuffer", "Notes"};
+    private static final int[] MIN_WIDTHS = {16, 18, 8, 14, 9, 18, 0};
+
+
+    private String settings;
+    private Map<String, RomResult> results;
+
+    public CompatibilityReport(String settings, List<RomResult> results) {
+        this.settings = settings;
+
+        this.results = new LinkedHashMap<>();
+        for (RomResult result : results) {
+            this.results.put(result.getName(), result);
+        }
+    }
+
+
+    public String format() {
+        int[] widths = MIN_WIDTHS.clone();
+        for (RomResult result : results.values()) {
+            widths[0] = Math.max(widths[0], result.getName().length() + 2);
+        }
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(TITLE).append('\n');
+        builder.append(SETTINGS).append(settings).append('\n');
+        builder.append('\n');
+
+        appendRow(builder, widths, COLUMNS);
+        for (RomResult result : results.values()) {
+            appendRow(builder, widths, new String[] {
+                    result.getName(),
+                    result.getStatus(),
+                    Long.toString(result.getFrames()),
+                    Long.toString(result.getInstructions()),
+                    (result.getNanos() / 1000000) + "ms",
+                    result.getHash(),
+                    result.getNotes()
+            });
+        }
+
+        return builder.toString();
+    }
+
+    private static void appendRow(StringBuilder builder, int[] widths, String[] fields) {
+        int start = builder.length();
+
+        for (int i = 0; i < fields.length; i++) {
+            builder.append(fields[i]);
+            for (int pad = fields[i].length(); pad < widths[i]; pad++) {
+                builder.append(' ');
+            }
+        }
+
+        // No trailing whitespace when there aren't any notes
+        int end = builder.length();
+        while (end > start && builder.charAt(end - 1) == ' ') {
+            end--;
+        }
+        builder.setLength(end);
+        builder.append('\n');
+    }
+
+    public void write(Path path) throws IOException {
+        Files.write(path, format().getBytes());
+    }
+
+    // Reads a report written by a previous run, or returns null if there isn't one
+    public static CompatibilityReport read(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+
+        List<String> lines = Files.readAllLines(path);
+        String settings = "";
+        int[] offsets = null;
+        List<RomResult> results = new ArrayList<>();
+
+        for (String line : lines) {
+            if (line.startsWith(SETTINGS)) {
+                settings = line.substring(SETTINGS.length());
+            } else if (offsets == null && line.startsWith(COLUMNS[0] + " ")) {
+                offsets = new int[COLUMNS.length + 1];
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    offsets[i] = line.indexOf(COLUMNS[i]);
+                }
+                offsets[COLUMNS.length] = Integer.MAX_VALUE;
+            } else if (offsets != null && !line.trim().isEmpty()) {
+                results.add(parseRow(line, offsets));
+            }
+        }
+
+        return new CompatibilityReport(settings, results);
+    }
+
+    private static RomResult parseRow(String line, int[] offsets) {
+        String[] fields = new String[COLUMNS.length];
+        for (int i = 0; i < fields.length; i++) {
+            int start = Math.min(offsets[i], line.length());
+            int end = Math.min(offsets[i + 1], line.length());
+            fields[i] = line.substring(start, end).trim();
+        }
+
+        return new RomResult(fields[0], fields[1], parseNumber(fields[2]), parseNumber(fields[3]),
+                parseNumber(fields[4].replace("ms", "")) * 1000000, fields[5], fields[6]);
+    }
+
+    private static long parseNumber(String field) {
+        try {
+            return Long.parseLong(field);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+
+    // Lists every ROM whose outcome differs from the previous report, or that was added or removed since
+    public List<String> diff(CompatibilityReport previous) {
+        List<String> changes = new ArrayList<>();
+
+        if (!settings.equals(previous.settings)) {
+            changes.add("Settings changed: " + previous.settings + " -> " + settings);
+        }
+
+        for (RomResult result : results.values()) {
+            RomResult previousResult = previous.results.get(result.getName());
+
+            if (previousResult == null) {
+                changes.add(result.getName() + ": new, " + result.getStatus());
+            } else if (!result.sameOutcome(previousResult)) {
+                changes.add(result.getName() + ": " + result.describeChange(previousResult));
+            }
+        }
+
+        for (String name : previous.results.keySet()) {
+            if (!results.containsKey(name)) {
+                changes.add(name + ": removed");
+            }
+        }
+
+        return changes;
+    }
+
+}
@@ -0,0 +1,113 @@
+package me.sudsey.chip8.batch;
+
+import me.sudsey.chip8.interpret.Machine;
+import me.sudsey.chip8.interpret.VirtualKeyboard;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+// Key presses for a batch run, read from a text file with one event per line:
+//
+//     # frame  action   key
+//     60       press    5
+//     64       release  5
+//
+// Events are applied once the machine reaches the given frame, in the order they're listed.
+
+public class InputScript {
+
+    public static final InputScript NONE = new InputScript(new long[0], new int[0], new boolean[0]);
+
+
+    private long[] frames;
+    private int[] keys;
+    private boolean[] presses;
+
+    private InputScript(long[] frames, int[] keys, boolean[] presses) {
+        this.frames = frames;
+        this.keys = keys;
+        this.presses = presses;
+    }
+
+
+    public static InputScript read(Path path) throws IOException {
+        List<String> lines = Files.readAllLines(path);
+
+        long[] frames = new long[lines.size()];
+        int[] keys = new int[lines.size()];
+        boolean[] presses = new boolean[lines.size()];
+        int events = 0;
+
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] fields = line.split("\\s+");
+            if (fields.length != 3) {
+                throw error(path, i, "expected <frame> <action> <key>");
+            }
+
+            try {
+                frames[events] = Long.parseLong(fields[0]);
+                keys[events] = Integer.parseInt(fields[2], 16);
+            } catch (NumberFormatException e) {
+                throw error(path, i, "invalid number");
+            }
+
+            switch (fields[1]) {
+                case "press":    presses[events] = true;   break;
+                case "release":  presses[events] = false;  break;
+                default:
+                    throw error(path, i, "unknown action " + fields[1]);
+            }
+
+            if (keys[events] < 0 || keys[events] > 0xF) {
+                throw error(path, i, "key must be 0-F");
+            }
+            if (events > 0 && frames[events] < frames[events - 1]) {
+                throw error(path, i, "events must be in frame order");
+            }
+
+            events++;
+        }
+
+        return new InputScript(Arrays.copyOf(frames, events), Arrays.copyOf(keys, events),
+                Arrays.copyOf(presses, events));
+    }
+
+
+    private static IllegalArgumentException error(Path path, int line, String message) {
+        return new IllegalArgumentException(path.getFileName() + ":" + (line + 1) + ": " + message);
+    }
+
+
+    // Runs the machine until it reaches frames or instructions, as Machine.run does, pressing keys along the way
+    public void run(Machine machine, long frames, long instructions) {
+        VirtualKeyboard keyboard = machine.getKeyboard();
+
+        for (int i = 0; i < this.frames.length && this.frames[i] < frames; i++) {
+            machine.run(this.frames[i], instructions);
+            if (machine.getProcessor().getInstructions() >= instructions) {
+                return;
+            }
+
+            if (presses[i]) {
+                keyboard.pressKey(keys[i]);
+            } else {
+                keyboard.releaseKey(keys[i]);
+            }
+        }
+
+        machine.run(frames, instructions);
+    }
+
+    public int getEvents() {
+        return frames.length;
+    }
+
+}
@@ -0,0 +1,83 @@
+package me.sudsey.chip8.batch;
+
+// The outcome of running one ROM in a batch, i.e. one row of the compatibility report.
+
+public class RomResult {
+
+    public static final String NOT_RUN = "Not run";
+    public static final String CRASHED = "Crashed";
+    public static final String BLANK = "Blank screen";
+    public static final String WAITING = "Waiting for key";
+    public static final String RUNNING = "Running";
+
+
+    private String name;
+    private String status;
+    private long frames;
+    private long instructions;
+    private long nanos;
+    private String hash;
+    private String notes;
+
+    public RomResult(String name, String status, long frames, long instructions, long nanos, String hash,
+                     String notes) {
+        this.name = name;
+        this.status = status;
+        this.frames = frames;
+        this.instructions = instructions;
+        this.nanos = nanos;
+        this.hash = hash;
+        this.notes = notes;
+    }
+
+
+    // Whether anything that should be reproducible differs, i.e. everything but the runtime
+    public boolean sameOutcome(RomResult other) {
+        return status.equals(other.status) && frames == other.frames && instructions == other.instructions &&
+                hash.equals(other.hash) && notes.equals(other.notes);
+    }
+
+    public String describeChange(RomResult previous) {
+        if (!status.equals(previous.status)) {
+            return previous.status + " -> " + status + (notes.isEmpty() ? "" : " (" + notes + ")");
+        }
+        if (!hash.equals(previous.hash)) {
+            return "framebuffer " + previous.hash + " -> " + hash;
+        }
+        if (!notes.equals(previous.notes)) {
+            return "\"" + previous.notes + "\" -> \"" + notes + "\"";
+        }
+        return "ran " + previous.instructions + " instructions over " + previous.frames + " frames -> " +
+                instructions + " over " + frames;
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getInstructions() {
+        return instructions;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public String getNotes() {
+        return notes;
+    }
+
+}
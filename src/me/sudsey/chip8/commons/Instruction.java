@@ -2,12 +2,18 @@ package me.sudsey.chip8.commons;
 
 public class Instruction {
 
-    private Opcode opcode;
-    private int nnn;
-    private int n;
-    private int x;
-    private int y;
-    private int kk;
+    // Every 16-bit word decoded once up front, so decoding at runtime is a single array load. Instructions are
+    // immutable, so the same instance is shared by every fetch of that word. Words that aren't valid instructions map
+    // to null.
+    private static final Instruction[] decodeTable = buildDecodeTable();
+
+
+    private final Opcode opcode;
+    private final int nnn;
+    private final int n;
+    private final int x;
+    private final int y;
+    private final int kk;
 
     public Instruction(Opcode opcode, int nnn, int n, int x, int y, int kk) {
         this.opcode = opcode;
@@ -20,8 +26,24 @@ public class Instruction {
 
 
     public static Instruction parseInstructionBytes(int instruction) {
+        return decodeTable[instruction & 0xFFFF];
+    }
+
+
+    private static Instruction[] buildDecodeTable() {
+        Instruction[] table = new Instruction[0x10000];
+        Opcode[] opcodes = Opcode.values();
+
+        for (int instruction = 0; instruction < table.length; instruction++) {
+            table[instruction] = decode(opcodes, instruction);
+        }
+
+        return table;
+    }
+
+    private static Instruction decode(Opcode[] opcodes, int instruction) {
         Opcode opcode = null;
-        for (Opcode _opcode : Opcode.values()) {
+        for (Opcode _opcode : opcodes) {
             if ((instruction & _opcode.getOperationMask()) == _opcode.getOperationBits()) {
                 opcode = _opcode;
                 break;
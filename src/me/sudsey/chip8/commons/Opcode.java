@@ -39,6 +39,7 @@ public enum Opcode {
 
 
     private int operationBits;
+    private int operationMask;
 
     private boolean usesNnn;
     private boolean usesN;
@@ -53,6 +54,13 @@ public enum Opcode {
         this.usesX = usesX;
         this.usesY = usesY;
         this.usesKk = usesKk;
+
+        this.operationMask = 0xFFFF
+                & (usesNnn ? 0xF000 : 0xFFFF)
+                & (usesN   ? 0xFFF0 : 0xFFFF)
+                & (usesX   ? 0xF0FF : 0xFFFF)
+                & (usesY   ? 0xFF0F : 0xFFFF)
+                & (usesKk  ? 0xFF00 : 0xFFFF);
     }
 
 
@@ -61,12 +69,7 @@ public enum Opcode {
     }
 
     public int getOperationMask() {
-        return 0xFFFF
-                & (usesNnn ? 0xF000 : 0xFFFF)
-                & (usesN   ? 0xFFF0 : 0xFFFF)
-                & (usesX   ? 0xF0FF : 0xFFFF)
-                & (usesY   ? 0xFF0F : 0xFFFF)
-                & (usesKk  ? 0xFF00 : 0xFFFF);
+        return operationMask;
     }
 
 
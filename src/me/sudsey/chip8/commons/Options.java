@@ -4,21 +4,175 @@ public class Options {
 
     private boolean clipEdges;
 
-    public Options(boolean clipEdges) {
-        this.clipEdges = clipEdges;
+    private int instructionsPerSecond;
+    private boolean uncapped;
+    private boolean wallClockTimers;
+    private long seed;
+
+    private boolean jit;
+    private boolean jitVerify;
+
+    private boolean decodeStats;
+
+    private long frames;
+    private long instructions;
+
+    private int threads;
+    private String report;
+
+    private String saveState;
+    private String loadState;
+
+    private int rewindMegabytes;
+
+    private String record;
+    private String replay;
+
+    private int machines;
+    private boolean lockstep;
+    private boolean lockstepVerify;
+
+    private String output;
+    private String format;
+    private boolean flow;
+
+    private String profile;
+
+    // Defaults, for whatever parseOptions() isn't given
+    private Options() {
+        this.clipEdges = false;
+
+        this.instructionsPerSecond = 500;
+        this.uncapped = false;
+        this.wallClockTimers = false;
+        this.seed = 0;
+
+        this.jit = false;
+        this.jitVerify = false;
+
+        this.decodeStats = false;
+
+        this.frames = 600;
+        this.instructions = Long.MAX_VALUE;
+
+        this.threads = Runtime.getRuntime().availableProcessors();
+        this.report = "batch-report.txt";
+
+        this.saveState = null;
+        this.loadState = null;
+
+        this.rewindMegabytes = 16;
+
+        this.record = null;
+        this.replay = null;
+
+        this.machines = 1000;
+        this.lockstep = false;
+        this.lockstepVerify = false;
+
+        this.output = null;
+        this.format = "text";
+        this.flow = false;
+
+        this.profile = null;
     }
 
 
     public static Options parseOptions(String[] options) {
-        boolean clipEdges = false;
+        Options parsed = new Options();
 
-        for (String option : options) {
-            if (option.equals("--clip-edges")) {
-                clipEdges = true;
+        for (int i = 0; i < options.length; i++) {
+            switch (options[i]) {
+                case "--clip-edges":         parsed.clipEdges = true;                                          break;
+                case "--ips":                parsed.instructionsPerSecond = parseInt(options, ++i, "--ips");   break;
+                case "--uncapped":           parsed.uncapped = true;                                           break;
+                case "--wall-clock-timers":  parsed.wallClockTimers = true;                                    break;
+                case "--seed":               parsed.seed = parseSeed(options, ++i);                            break;
+                case "--jit":                parsed.jit = true;                                                break;
+                case "--jit-verify":         parsed.jit = true; parsed.jitVerify = true;                       break;
+                case "--decode-stats":       parsed.decodeStats = true;                                        break;
+                case "--frames":             parsed.frames = parseLong(options, ++i, "--frames");              break;
+                case "--instructions":       parsed.instructions = parseLong(options, ++i, "--instructions");  break;
+                case "--threads":            parsed.threads = parseInt(options, ++i, "--threads");             break;
+                case "--report":             parsed.report = parseString(options, ++i, "--report");            break;
+                case "--save-state":         parsed.saveState = parseString(options, ++i, "--save-state");     break;
+                case "--load-state":         parsed.loadState = parseString(options, ++i, "--load-state");     break;
+                case "--rewind":             parsed.rewindMegabytes = parseInt(options, ++i, "--rewind");      break;
+                case "--no-rewind":          parsed.rewindMegabytes = 0;                                       break;
+                case "--record":             parsed.record = parseString(options, ++i, "--record");            break;
+                case "--replay":             parsed.replay = parseString(options, ++i, "--replay");            break;
+                case "--machines":           parsed.machines = parseInt(options, ++i, "--machines");           break;
+                case "--lockstep":           parsed.lockstep = true;                                           break;
+                case "--lockstep-verify":    parsed.lockstep = true; parsed.lockstepVerify = true;             break;
+                case "--output":             parsed.output = parseString(options, ++i, "--output");            break;
+                case "--format":             parsed.format = parseFormat(options, ++i);                        break;
+                case "--flow":               parsed.flow = true;                                               break;
+                case "--profile":            parsed.profile = parseString(options, ++i, "--profile");
             }
         }
 
-        return new Options(clipEdges);
+        return parsed;
+    }
+
+    private static long parseLong(String[] options, int i, String option) {
+        if (i >= options.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+
+        long value;
+        try {
+            value = Long.parseLong(options[i]);
+        } catch (NumberFormatException e) {
+            value = 0;
+        }
+
+        if (value <= 0) {
+            throw new IllegalArgumentException("Invalid value for " + option + ": " + options[i]);
+        }
+        return value;
+    }
+
+    private static String parseString(String[] options, int i, String option) {
+        if (i >= options.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+
+        return options[i];
+    }
+
+    private static long parseSeed(String[] options, int i) {
+        if (i >= options.length) {
+            throw new IllegalArgumentException("Missing value for --seed");
+        }
+
+        try {
+            return Long.parseLong(options[i]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for --seed: " + options[i]);
+        }
+    }
+
+    private static String parseFormat(String[] options, int i) {
+        String format = parseString(options, i, "--format");
+
+        switch (format) {
+            case "text":
+            case "tsv":
+            case "jsonl":
+                return format;
+            default:
+                throw new IllegalArgumentException("Invalid value for --format: " + format + ", expected text, tsv or " +
+                        "jsonl");
+        }
+    }
+
+    private static int parseInt(String[] options, int i, String option) {
+        long value = parseLong(options, i, option);
+
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid value for " + option + ": " + options[i]);
+        }
+        return (int) value;
     }
 
 
@@ -26,4 +180,124 @@ public class Options {
         return clipEdges;
     }
 
+    // Emulated clock speed. Unless uncapped, the processor is held to this in real time.
+    public int getInstructionsPerSecond() {
+        return instructionsPerSecond;
+    }
+
+    // Run as fast as the host allows, with the timers still counting down at 60Hz of emulated time. Always on for
+    // --replay.
+    public boolean isUncapped() {
+        return uncapped || replay != null;
+    }
+
+    // Count the timers down on a separate 60Hz wall-clock task, as opposed to every (IPS / 60) instructions. Ignored
+    // when uncapped.
+    public boolean isWallClockTimers() {
+        return wallClockTimers;
+    }
+
+    // Seeds RND, so runs can be reproduced
+    public long getSeed() {
+        return seed;
+    }
+
+    // Translate hot blocks of code to JVM bytecode, see Recompiler
+    public boolean isJit() {
+        return jit;
+    }
+
+    // Also re-run every recompiled block through the interpreter, and fail if they don't end up in the same state
+    public boolean isJitVerify() {
+        return jitVerify;
+    }
+
+    // Count hits and invalidations in the decoded instruction cache, and print them on exit
+    public boolean isDecodeStats() {
+        return decodeStats;
+    }
+
+    // Headless runs stop after this many 60Hz frames...
+    public long getFrames() {
+        return frames;
+    }
+
+    // ...or this many instructions, whichever comes first.
+    public long getInstructions() {
+        return instructions;
+    }
+
+    // Batch runs and corpus disassembly spread ROMs, and pools their machines, over this many worker threads
+    public int getThreads() {
+        return threads;
+    }
+
+    // Where batch runs write their compatibility report, and read the previous one from
+    public String getReport() {
+        return report;
+    }
+
+    // Headless runs save the machine's state here when they finish, and in a window F5 saves here. null if not given.
+    public String getSaveState() {
+        return saveState;
+    }
+
+    // Restored once the ROM is loaded, and in a window F9 restores it again. null if not given.
+    public String getLoadState() {
+        return loadState;
+    }
+
+    // Cap on the history kept for rewinding in a window, 0 to not keep any
+    public int getRewindMegabytes() {
+        return rewindMegabytes;
+    }
+
+    // Log key presses in a window here, for --replay. null if not given.
+    public String getRecord() {
+        return record;
+    }
+
+    // Press keys as logged by --record instead of taking live input, and run uncapped. null if not given.
+    public String getReplay() {
+        return replay;
+    }
+
+    // Number of copies of the ROM a pool run steps together
+    public int getMachines() {
+        return machines;
+    }
+
+    // Pool runs step the copies together in a LockstepBatch, instead of as separate machines
+    public boolean isLockstep() {
+        return lockstep;
+    }
+
+    // Also run every lane of a LockstepBatch as a separate machine, and fail if they don't end up in the same state
+    public boolean isLockstepVerify() {
+        return lockstepVerify;
+    }
+
+    // Where disassembly is written, or null for standard output. For a corpus, the directory to write into, also null
+    // if not given.
+    public String getOutput() {
+        return output;
+    }
+
+    // How disassembly is written: text (the default), tsv or jsonl
+    public String getFormat() {
+        return format;
+    }
+
+    // Disassemble only the code reachable from 0x200, as labelled basic blocks with the data between them, see
+    // BlockMap. Text only.
+    public boolean isFlow() {
+        return flow;
+    }
+
+    // Profile every instruction, and write a report here when the run ends (and the time by call stack next to it, in
+    // <profile>.folded). null if not given.
+    public String getProfile() {
+        return profile;
+    }
+
 }
@@ -0,0 +1,81 @@
+package me.sudsey.chip8.disassemble;
+
+// A basic block found by BlockMap: a run of instructions that's only ever entered at its start, and only left after
+// its last instruction.
+
+public class Block {
+
+    // How control leaves the block, after its last instruction
+    public enum Exit {
+        FALL_THROUGH,   // Into the block starting right after it
+        JUMP,           // JP
+        CALL,           // CALL, returning to the next block
+        SKIP,           // SE, SNE, SKP or SKNP: to the next instruction or the one after
+        RETURN,         // RET
+        COMPUTED_JUMP   // JP_V0_addr, which could go anywhere from nnn to nnn + 0xFF
+    }
+
+
+    private int start;
+    private int end;
+    private Exit exit;
+    private int[] successors;
+    private int callTarget;
+    private boolean functionEntry;
+    private String label;
+
+    Block(int start, int end, Exit exit, int[] successors, int callTarget, boolean functionEntry, String label) {
+        this.start = start;
+        this.end = end;
+        this.exit = exit;
+        this.successors = successors;
+        this.callTarget = callTarget;
+        this.functionEntry = functionEntry;
+        this.label = label;
+    }
+
+
+    public int getStart() {
+        return start;
+    }
+
+    // Address right after the last instruction
+    public int getEnd() {
+        return end;
+    }
+
+    public int getLastInstruction() {
+        return end - 2;
+    }
+
+    public int getInstructionCount() {
+        return (end - start) / 2;
+    }
+
+    public Exit getExit() {
+        return exit;
+    }
+
+    // Where control can go next within the function, in address order. A CALL's successor is where it returns to, not
+    // the subroutine. Addresses outside the ROM are included, though there's no block for them. Empty for RET and
+    // computed jumps.
+    public int[] getSuccessors() {
+        return successors.clone();
+    }
+
+    // The subroutine called by the last instruction, or -1 if it isn't a CALL
+    public int getCallTarget() {
+        return callTarget;
+    }
+
+    // The entry point at 0x200, or the target of a CALL
+    public boolean isFunctionEntry() {
+        return functionEntry;
+    }
+
+    // "main" for 0x200, "sub_0abc" for other function entries, "loc_0abc" for the rest
+    public String getLabel() {
+        return label;
+    }
+
+}
@@ -0,0 +1,309 @@
+package me.sudsey.chip8.disassemble;
+
+import me.sudsey.chip8.commons.Instruction;
+import me.sudsey.chip8.commons.Opcode;
+import me.sudsey.chip8.interpret.Memory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// The code in a ROM, found by following control flow from 0x200 rather than reading every word as an instruction:
+// through JP, both ways out of skips, into CALLs and back out after them, and straight on past everything else. Words
+// that are never reached this way are data. Instructions at odd addresses are found like any others, even if they
+// overlap.
+//
+// Anything that can only be known at runtime is beyond it: the targets of JP_V0_addr (which are flagged instead), and
+// code the ROM writes into memory before running it. Words that aren't valid instructions do nothing when executed, so
+// control carries on past them here too.
+//
+// Addresses are where things end up in memory, so 0x200 is the first byte of the ROM. Only the part of the ROM that
+// fits in memory is analyzed.
+
+public class BlockMap {
+
+    private ByteBuffer rom;
+    private int end;                // Address right after the last byte analyzed
+
+    private boolean[] instructions; // Reachable instructions, by the address of their first byte
+    private boolean[] code;         // Bytes belonging to a reachable instruction
+    private boolean[] leaders;      // Addresses where a block has to start
+    private Block[] blocks;         // By the address of every instruction in each block
+
+    private List<Block> blockList;
+    private TreeSet<Integer> functions;             // Entry points: 0x200, and CALL targets in the ROM
+    private Map<Integer, List<Integer>> callGraph;  // Callees by function
+    private List<Integer> computedJumps;
+
+    private BlockMap(ByteBuffer rom) {
+        this.rom = rom;
+        this.end = Memory.ROM_START + Math.min(rom.limit(), Memory.MAX_ROM_SIZE);
+
+        this.instructions = new boolean[end];
+        this.code = new boolean[end];
+        this.leaders = new boolean[end];
+        this.blocks = new Block[end];
+
+        this.blockList = new ArrayList<>();
+        this.functions = new TreeSet<>();
+        this.callGraph = new TreeMap<>();
+        this.computedJumps = new ArrayList<>();
+    }
+
+
+    public static BlockMap analyze(byte[] rom) {
+        return analyze(ByteBuffer.wrap(rom));
+    }
+
+    // The ROM is everything from rom's position to its limit, which are left as they were
+    public static BlockMap analyze(ByteBuffer rom) {
+        BlockMap map = new BlockMap(rom.slice());
+        map.findInstructions();
+        map.buildBlocks();
+        map.buildCallGraph();
+
+        return map;
+    }
+
+
+    // Marks every instruction reachable from 0x200, and the leaders of the blocks they'll be split into
+    private void findInstructions() {
+        Deque<Integer> pending = new ArrayDeque<>();
+        addTarget(pending, Memory.ROM_START);
+        if (isInRom(Memory.ROM_START)) {
+            functions.add(Memory.ROM_START);
+        }
+
+        while (!pending.isEmpty()) {
+            int address = pending.pop();
+
+            // Straight on until something changes the PC, or we reach code we've already been through
+            while (isInRom(address) && !instructions[address]) {
+                instructions[address] = true;
+                code[address] = true;
+                code[address + 1] = true;
+
+                Opcode opcode = getOpcode(address);
+                if (!endsBlock(opcode)) {
+                    address += 2;
+                    continue;
+                }
+
+                switch (opcode) {
+                    case JP:
+                        addTarget(pending, getNnn(address));
+                        break;
+                    case CALL:
+                        addTarget(pending, getNnn(address));
+                        addTarget(pending, address + 2);
+                        if (isInRom(getNnn(address))) {
+                            functions.add(getNnn(address));
+                        }
+                        break;
+                    case JP_V0_addr:
+                        computedJumps.add(address);
+                        break;
+                    case RET:
+                        break;
+                    default:
+                        addTarget(pending, address + 2);
+                        addTarget(pending, address + 4);
+                }
+                break;
+            }
+        }
+
+        Collections.sort(computedJumps);
+    }
+
+    private void addTarget(Deque<Integer> pending, int address) {
+        if (isInRom(address)) {
+            leaders[address] = true;
+            pending.push(address);
+        }
+    }
+
+    // Splits the reachable instructions into blocks, each running from a leader up to the next leader or the first
+    // instruction that changes the PC
+    private void buildBlocks() {
+        for (int start = Memory.ROM_START; start < end; start++) {
+            if (!leaders[start]) {
+                continue;
+            }
+
+            int last = start;
+            while (!endsBlock(getOpcode(last)) && isInRom(last + 2) && !leaders[last + 2]) {
+                last += 2;
+            }
+
+            Block block = createBlock(start, last);
+            blockList.add(block);
+            for (int address = start; address <= last; address += 2) {
+                blocks[address] = block;
+            }
+        }
+    }
+
+    private Block createBlock(int start, int last) {
+        Opcode opcode = getOpcode(last);
+        int next = last + 2;
+        int target = getNnn(last);
+
+        Block.Exit exit;
+        int[] successors;
+        int callTarget = -1;
+
+        if (!endsBlock(opcode)) {
+            exit = Block.Exit.FALL_THROUGH;
+            successors = new int[] { next };
+        } else if (opcode == Opcode.JP) {
+            exit = Block.Exit.JUMP;
+            successors = new int[] { target };
+        } else if (opcode == Opcode.CALL) {
+            exit = Block.Exit.CALL;
+            successors = new int[] { next };
+            callTarget = target;
+        } else if (opcode == Opcode.RET) {
+            exit = Block.Exit.RETURN;
+            successors = new int[0];
+        } else if (opcode == Opcode.JP_V0_addr) {
+            exit = Block.Exit.COMPUTED_JUMP;
+            successors = new int[0];
+        } else {
+            exit = Block.Exit.SKIP;
+            successors = new int[] { next, next + 2 };
+        }
+
+        boolean functionEntry = functions.contains(start);
+        String label = start == Memory.ROM_START ? "main" :
+                String.format(functionEntry ? "sub_%04x" : "loc_%04x", start);
+
+        return new Block(start, next, exit, successors, callTarget, functionEntry, label);
+    }
+
+    // The subroutines each function calls, found by walking its blocks without following CALLs into their targets
+    private void buildCallGraph() {
+        for (int function : functions) {
+            TreeSet<Integer> callees = new TreeSet<>();
+            boolean[] visited = new boolean[end];
+
+            Deque<Block> pending = new ArrayDeque<>();
+            pending.push(blocks[function]);
+            visited[function] = true;
+
+            while (!pending.isEmpty()) {
+                Block block = pending.pop();
+                if (block.getCallTarget() >= 0) {
+                    callees.add(block.getCallTarget());
+                }
+
+                for (int successor : block.getSuccessors()) {
+                    if (isInRom(successor) && !visited[successor]) {
+                        visited[successor] = true;
+                        pending.push(blocks[successor]);
+                    }
+                }
+            }
+
+            callGraph.put(function, Collections.unmodifiableList(new ArrayList<>(callees)));
+        }
+    }
+
+
+    // Whether opcode can change the PC, and so has to be the last instruction of a block
+    private static boolean endsBlock(Opcode opcode) {
+        if (opcode == null) {
+            return false;
+        }
+
+        switch (opcode) {
+            case JP:
+            case CALL:
+            case RET:
+            case JP_V0_addr:
+            case SE_Vx_byte:
+            case SNE_Vx_byte:
+            case SE_Vx_Vy:
+            case SNE_Vx_Vy:
+            case SKP:
+            case SKNP:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Whether a whole instruction at address lies within the ROM
+    private boolean isInRom(int address) {
+        return address >= Memory.ROM_START && address + 1 < end;
+    }
+
+    private int getWord(int address) {
+        int offset = address - Memory.ROM_START;
+        return ((rom.get(offset) & 0xFF) << 8) | (rom.get(offset + 1) & 0xFF);
+    }
+
+    private Opcode getOpcode(int address) {
+        Instruction instruction = Instruction.parseInstructionBytes(getWord(address));
+        return instruction != null ? instruction.getOpcode() : null;
+    }
+
+    private int getNnn(int address) {
+        return getWord(address) & 0x0FFF;
+    }
+
+
+    // Address right after the last byte of the ROM that was analyzed
+    public int getEnd() {
+        return end;
+    }
+
+    // Every block, in address order
+    public List<Block> getBlocks() {
+        return Collections.unmodifiableList(blockList);
+    }
+
+    // The block starting at address, or null if none does
+    public Block getBlock(int address) {
+        Block block = getBlockContaining(address);
+        return block != null && block.getStart() == address ? block : null;
+    }
+
+    // The block holding the instruction starting at address, or null if there's no reachable instruction there
+    public Block getBlockContaining(int address) {
+        return address >= 0 && address < end ? blocks[address] : null;
+    }
+
+    // Whether a reachable instruction starts at address
+    public boolean isInstruction(int address) {
+        return address >= 0 && address < end && instructions[address];
+    }
+
+    // Whether the byte at address is part of a reachable instruction, as opposed to data
+    public boolean isCode(int address) {
+        return address >= 0 && address < end && code[address];
+    }
+
+    // 0x200 and every address CALLed within the ROM, in order. Empty if the ROM is too short to hold an instruction.
+    public List<Integer> getFunctions() {
+        return new ArrayList<>(functions);
+    }
+
+    // The addresses called directly from function, in order, including any outside the ROM
+    public List<Integer> getCallees(int function) {
+        List<Integer> callees = callGraph.get(function);
+        return callees != null ? callees : Collections.emptyList();
+    }
+
+    // Addresses of reachable JP_V0_addr instructions, whose targets are unknown
+    public List<Integer> getComputedJumps() {
+        return Collections.unmodifiableList(computedJumps);
+    }
+
+}
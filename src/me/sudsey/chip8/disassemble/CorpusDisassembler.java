@@ -0,0 +1,275 @@
+package me.sudsey.chip8.disassemble;
+
+import me.sudsey.chip8.commons.Instruction;
+import me.sudsey.chip8.commons.Opcode;
+import me.sudsey.chip8.commons.Options;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// Disassembles every ROM in a directory (and the directories in it) or a zip file in one go, spread over a fixed pool
+// of worker threads, with --format and --flow as for a single ROM. Each ROM's listing goes to a file of the same name
+// plus the format's extension, under the --output directory. Then prints how often each opcode came up across all of
+// them.
+//
+// ROMs in a directory are mapped into memory and disassembled from there, rather than copied onto the heap first.
+// ROMs in a zip have to be inflated, so they're read from it into arrays.
+
+public class CorpusDisassembler {
+
+    private static final String DEFAULT_OUTPUT = "disassembly";
+    private static final int DATA = Opcode.values().length; // Index of words that aren't instructions in the counts
+
+    public static void run(Options options, Path corpus) {
+        if (options.isFlow() && !options.getFormat().equals("text")) {
+            System.err.println("--flow only writes the text format");
+            return;
+        }
+
+        Disassembler.Format format = Disassembler.Format.valueOf(options.getFormat().toUpperCase());
+        Path outputDirectory = Paths.get(options.getOutput() != null ? options.getOutput() : DEFAULT_OUTPUT);
+        boolean flow = options.isFlow();
+
+        // Each worker keeps its own, and with it its buffer
+        ThreadLocal<Disassembler> disassemblers = ThreadLocal.withInitial(() -> new Disassembler(format));
+
+        long startTime = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(options.getThreads());
+
+        ZipFile zip = null;
+        List<Callable<long[]>> tasks = new ArrayList<>();
+        try {
+            if (Files.isDirectory(corpus)) {
+                for (Path path : listROMs(corpus, outputDirectory)) {
+                    Path output = resolveOutput(outputDirectory, corpus.relativize(path).toString(), format);
+                    tasks.add(() -> disassembleFile(path, output, disassemblers.get(), flow));
+                }
+            } else {
+                zip = new ZipFile(corpus.toFile());
+                ZipFile source = zip; // Effectively final, for the tasks
+
+                for (ZipEntry entry : listROMs(zip)) {
+                    Path output = resolveOutput(outputDirectory, entry.getName(), format);
+                    tasks.add(() -> disassembleEntry(source, entry, output, disassemblers.get(), flow));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not list ROMs in " + corpus + ". Error: " + e.toString());
+            workers.shutdownNow();
+            closeQuietly(zip);
+            return;
+        }
+
+        long[] counts = new long[DATA + 1];
+        int failed = 0;
+        try {
+            for (Future<long[]> future : workers.invokeAll(tasks)) {
+                long[] romCounts = future.get();
+                if (romCounts == null) {
+                    failed++;
+                    continue;
+                }
+
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] += romCounts[i];
+                }
+            }
+        } catch (InterruptedException e) {
+            System.err.println("Corpus disassembly interrupted. Error: " + e.toString());
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            System.err.println("Corpus disassembly failed. Error: " + e.toString());
+            return;
+        } finally {
+            workers.shutdownNow();
+            closeQuietly(zip);
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+
+        System.out.print(formatHistogram(counts, flow));
+        System.out.println();
+        System.out.println(String.format("Disassembled %d ROMs into %s on %d threads in %.2fs (%.0f ROMs per second)",
+                tasks.size() - failed, outputDirectory, options.getThreads(), elapsed / 1e9,
+                (tasks.size() - failed) / (elapsed / 1e9)));
+        if (failed > 0) {
+            System.out.println(failed + " ROM(s) couldn't be disassembled, see above");
+        }
+    }
+
+
+    // Leaves out anything in the output directory, in case it's inside the corpus
+    private static List<Path> listROMs(Path directory, Path outputDirectory) throws IOException {
+        Path output = outputDirectory.toAbsolutePath().normalize();
+
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files
+                    .filter(Files::isRegularFile)
+                    .filter(path -> !isIgnored(path.getFileName().toString()))
+                    .filter(path -> !path.toAbsolutePath().normalize().startsWith(output))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static List<ZipEntry> listROMs(ZipFile zip) {
+        return zip.stream()
+                .filter(entry -> !entry.isDirectory())
+                .filter(entry -> !isIgnored(Paths.get(entry.getName()).getFileName().toString()))
+                .sorted((a, b) -> a.getName().compareTo(b.getName()))
+                .collect(Collectors.toList());
+    }
+
+    // As in BatchRunner: input scripts, text files (the games pack comes with a readme) and hidden files aren't ROMs
+    private static boolean isIgnored(String name) {
+        return name.startsWith(".") || name.endsWith(".input") || name.toLowerCase().endsWith(".txt");
+    }
+
+    // Keeps zip entries like ../x from writing outside the output directory
+    private static Path resolveOutput(Path outputDirectory, String name, Disassembler.Format format)
+            throws IOException {
+        Path output = outputDirectory.resolve(name + getExtension(format)).normalize();
+        if (!output.startsWith(outputDirectory.normalize())) {
+            throw new IOException("ROM " + name + " would be written outside " + outputDirectory);
+        }
+
+        return output;
+    }
+
+    private static String getExtension(Disassembler.Format format) {
+        switch (format) {
+            case TSV:   return ".tsv";
+            case JSONL: return ".jsonl";
+            default:    return ".txt";
+        }
+    }
+
+
+    // These return the ROM's opcode counts, or null if it couldn't be disassembled
+
+    private static long[] disassembleFile(Path path, Path output, Disassembler disassembler, boolean flow) {
+        ByteBuffer rom;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping outlives the channel, until the buffer is garbage collected
+            rom = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            System.err.println("Could not read " + path + ". Error: " + e.toString());
+            return null;
+        }
+
+        return disassemble(path.toString(), rom, output, disassembler, flow);
+    }
+
+    private static long[] disassembleEntry(ZipFile zip, ZipEntry entry, Path output, Disassembler disassembler,
+                                           boolean flow) {
+        byte[] rom;
+        try (InputStream in = zip.getInputStream(entry)) {
+            rom = in.readAllBytes();
+        } catch (IOException e) {
+            System.err.println("Could not read " + entry.getName() + ". Error: " + e.toString());
+            return null;
+        }
+
+        return disassemble(entry.getName(), ByteBuffer.wrap(rom), output, disassembler, flow);
+    }
+
+    private static long[] disassemble(String name, ByteBuffer rom, Path output, Disassembler disassembler,
+                                      boolean flow) {
+        BlockMap blocks = flow ? BlockMap.analyze(rom) : null;
+
+        try {
+            Files.createDirectories(output.getParent());
+            try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                if (flow) {
+                    disassembler.disassembleBlocks(rom, blocks, out);
+                } else {
+                    disassembler.disassemble(rom, out);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write disassembly of " + name + ". Error: " + e.toString());
+            return null;
+        }
+
+        return countOpcodes(rom, blocks);
+    }
+
+    // Every word, or with blocks just the instructions they found, including any at odd addresses
+    private static long[] countOpcodes(ByteBuffer rom, BlockMap blocks) {
+        long[] counts = new long[DATA + 1];
+        int step = blocks != null ? 1 : 2;
+
+        for (int i = 0; i + 1 < rom.limit(); i += step) {
+            if (blocks != null && !blocks.isInstruction(0x200 + i)) {
+                continue;
+            }
+
+            Instruction instruction = Instruction.parseInstructionBytes(((rom.get(i) & 0xFF) << 8) |
+                    (rom.get(i + 1) & 0xFF));
+            counts[instruction != null ? instruction.getOpcode().ordinal() : DATA]++;
+        }
+
+        return counts;
+    }
+
+
+    private static String formatHistogram(long[] counts, boolean flow) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(flow ? "Reachable instructions" : "Words").append(" by opcode, across every ROM:")
+                .append(System.lineSeparator());
+
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            order.add(i);
+        }
+        Collections.sort(order, (a, b) -> Long.compare(counts[b], counts[a]));
+
+        for (int i : order) {
+            String name = i == DATA ? "DATA" : Opcode.values()[i].name();
+            String format = i == DATA ? "" : "(" + Opcode.values()[i].getOpcodeFormat() + ")";
+            builder.append(String.format("  %-11s  %-6s  %12d  %6.2f%%", name, format, counts[i],
+                    total > 0 ? 100.0 * counts[i] / total : 0)).append(System.lineSeparator());
+        }
+        builder.append(String.format("  %-21s  %12d", "Total", total)).append(System.lineSeparator());
+
+        return builder.toString();
+    }
+
+    private static void closeQuietly(ZipFile zip) {
+        if (zip == null) {
+            return;
+        }
+
+        try {
+            zip.close();
+        } catch (IOException e) {
+            // Only ever read from
+        }
+    }
+
+}
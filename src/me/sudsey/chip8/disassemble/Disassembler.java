@@ -3,59 +3,496 @@ package me.sudsey.chip8.disassemble;
 import me.sudsey.chip8.commons.Instruction;
 import me.sudsey.chip8.commons.Opcode;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Writes one line per 2-byte word of a ROM, straight into a byte buffer that's handed to the channel whenever it fills
+// up. Numbers are formatted by hand and the fixed parts of each line are encoded once up front, so nothing is allocated
+// per line. A Disassembler keeps its buffer between ROMs, so reuse one rather than making one per ROM, but only on one
+// thread at a time.
+//
+//     TEXT    0x0200  00E0    CLS  (00E0)  ...    the original format, meant for reading
+//     TSV     address, word, opcode, nnn, n, x, y, kk as columns, after a header row. Unused operands are left empty.
+//     JSONL   one object per word, with the same fields as numbers. Unused operands are left out.
+//
+// Words that aren't instructions have the opcode DATA in every format.
+
 public class Disassembler {
 
-    public static void disassemble(int[] rom) {
-        int length = (rom.length / 2) * 2;
+    public enum Format { TEXT, TSV, JSONL }
+
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LINE = 256; // Longer than any line in any format
+    private static final int DATA_PER_LINE = 8; // Bytes, when disassembling blocks
+
+    private static final byte[] HEX_LOWER = ascii("0123456789abcdef");
+    private static final byte[] HEX_UPPER = ascii("0123456789ABCDEF");
+
+    private static final byte[] NEWLINE = ascii(System.lineSeparator());
+    private static final byte[] DATA = ascii("DATA");
+    private static final byte[] TSV_HEADER = ascii("address\tword\topcode\tnnn\tn\tx\ty\tkk");
+
+    private static final byte[] NNN = ascii("nnn: ");
+    private static final byte[] N = ascii("n: ");
+    private static final byte[] X = ascii("x: ");
+    private static final byte[] Y = ascii("y: ");
+    private static final byte[] KK = ascii("kk: ");
+
+    private static final byte[][] TEXT_OPCODES = new byte[Opcode.values().length][]; // e.g. "CLS        \t(00E0)\t"
+    private static final byte[][] NAMES = new byte[Opcode.values().length][];
+
+    static {
+        for (Opcode opcode : Opcode.values()) {
+            TEXT_OPCODES[opcode.ordinal()] = ascii(String.format("%-11s\t(%s)\t", opcode.name(),
+                    opcode.getOpcodeFormat()));
+            NAMES[opcode.ordinal()] = ascii(opcode.name());
+        }
+    }
+
+
+    private Format format;
+
+    private ByteBuffer buffer;
+    private byte[] bytes;   // buffer's backing array, written to directly
+    private int position;
+
+    public Disassembler(Format format) {
+        this.format = format;
+
+        this.bytes = new byte[BUFFER_SIZE];
+        this.buffer = ByteBuffer.wrap(bytes);
+    }
+
+
+    public static void disassemble(byte[] rom) {
+        disassemble(rom, System.out);
+    }
+
+    public static void disassemble(byte[] rom, PrintStream out) {
+        try {
+            new Disassembler(Format.TEXT).disassemble(rom, Channels.newChannel(out));
+        } catch (IOException e) {
+            // PrintStreams don't throw, they set their error flag instead
+            throw new UncheckedIOException(e);
+        }
+        out.flush();
+    }
+
+    public void disassemble(byte[] rom, WritableByteChannel out) throws IOException {
+        disassemble(ByteBuffer.wrap(rom), out);
+    }
+
+    // The ROM is everything from rom's position to its limit, which are left as they were, e.g. a file mapped into
+    // memory. Everything is written to out by the time this returns. out is left open.
+    public void disassemble(ByteBuffer rom, WritableByteChannel out) throws IOException {
+        rom = rom.slice();
+        int length = (rom.limit() / 2) * 2;
+        position = 0;
+
+        if (format == Format.TSV) {
+            write(TSV_HEADER);
+            write(NEWLINE);
+        }
 
         for (int i = 0; i < length; i += 2) {
-            int instructionBytes = (rom[i] << 8) | rom[1 + i];
-            System.out.println(getDisassembledLine(i, instructionBytes));
+            if (position > BUFFER_SIZE - MAX_LINE) {
+                flush(out);
+            }
+
+            int instructionBytes = getWord(rom, i);
+            Instruction instruction = Instruction.parseInstructionBytes(instructionBytes);
+
+            switch (format) {
+                case TEXT:  writeText(i + 0x200, instructionBytes, instruction);   break;
+                case TSV:   writeTsv(i + 0x200, instructionBytes, instruction);    break;
+                case JSONL: writeJson(i + 0x200, instructionBytes, instruction);
+            }
+            write(NEWLINE);
         }
+
+        flush(out);
+    }
+
+    // The code found by blocks (see BlockMap) as labelled blocks, each followed by where control goes next, with the
+    // data around them 8 bytes to a line. Starts with the call graph. Always in the TEXT format, whatever this
+    // Disassembler's is.
+    public void disassembleBlocks(byte[] rom, BlockMap blocks, WritableByteChannel out) throws IOException {
+        disassembleBlocks(ByteBuffer.wrap(rom), blocks, out);
     }
 
+    // As disassemble(ByteBuffer, WritableByteChannel)
+    public void disassembleBlocks(ByteBuffer rom, BlockMap blocks, WritableByteChannel out) throws IOException {
+        rom = rom.slice();
+        position = 0;
+        writeCallGraph(blocks, out);
+
+        int end = 0x200 + rom.limit();
+        int dataStart = -1; // Start of the line of data being written, -1 between lines
 
-    private static String getDisassembledLine(int location, int instructionBytes) {
-        Instruction instruction = Instruction.parseInstructionBytes(instructionBytes);
+        for (int address = 0x200; address < end; address++) {
+            Block block = blocks.getBlock(address);
 
-        return String.format("0x%04x\t", location + 0x200) +
-                String.format("%04X\t", instructionBytes) +
-                (instruction != null ? disassembleInstruction(instruction) : "DATA");
+            if (block != null) {
+                if (dataStart >= 0) {
+                    write(NEWLINE);
+                    dataStart = -1;
+                }
+                writeBlock(rom, blocks, block, out);
+            } else if (!blocks.isCode(address)) {
+                if (dataStart >= 0 && address - dataStart == DATA_PER_LINE) {
+                    write(NEWLINE);
+                    dataStart = -1;
+                }
+                if (dataStart < 0) {
+                    if (position > BUFFER_SIZE - MAX_LINE) {
+                        flush(out);
+                    }
+                    if (address == 0x200 || blocks.isCode(address - 1)) {
+                        write(NEWLINE);
+                    }
+                    writeHex(address, 4, HEX_LOWER, true);
+                    writeByte('\t');
+                    write(DATA);
+                    dataStart = address;
+                }
+                writeByte(' ');
+                writeHex(rom.get(address - 0x200) & 0xFF, 2, HEX_UPPER, false);
+            } else if (dataStart >= 0) {
+                // Code in the middle of another block, i.e. overlapping an instruction at an odd address
+                write(NEWLINE);
+                dataStart = -1;
+            }
+        }
+
+        if (dataStart >= 0) {
+            write(NEWLINE);
+        }
+        flush(out);
     }
 
-    private static String disassembleInstruction(Instruction instruction) {
-        StringBuilder builder = new StringBuilder();
-        Opcode opcode = instruction.getOpcode();
+    //     main: sub_0300, sub_0320
+    private void writeCallGraph(BlockMap blocks, WritableByteChannel out) throws IOException {
+        writeAscii("; Functions, and the addresses they call");
+        write(NEWLINE);
+
+        for (int function : blocks.getFunctions()) {
+            writeAscii(";     ");
+            writeLabel(blocks, function);
+            writeByte(':');
 
-        builder.append(String.format("%-11s\t(%s)\t", opcode.name(), opcode.getOpcodeFormat()));
+            List<Integer> callees = blocks.getCallees(function);
+            if (callees.isEmpty()) {
+                writeAscii(" nothing");
+            }
+            for (int i = 0; i < callees.size(); i++) {
+                if (position > BUFFER_SIZE - MAX_LINE) {
+                    flush(out);
+                }
+                writeAscii(i == 0 ? " " : ", ");
+                writeLabel(blocks, callees.get(i));
+            }
+            write(NEWLINE);
+        }
+
+        if (!blocks.getComputedJumps().isEmpty()) {
+            writeAscii("; Computed jumps (JP_V0_addr), whose targets aren't known:");
+            for (int address : blocks.getComputedJumps()) {
+                if (position > BUFFER_SIZE - MAX_LINE) {
+                    flush(out);
+                }
+                writeByte(' ');
+                writeHex(address, 4, HEX_LOWER, true);
+            }
+            write(NEWLINE);
+        }
+    }
+
+    private void writeBlock(ByteBuffer rom, BlockMap blocks, Block block, WritableByteChannel out) throws IOException {
+        if (position > BUFFER_SIZE - MAX_LINE) {
+            flush(out);
+        }
+        write(NEWLINE);
+        writeAscii(block.getLabel());
+        writeByte(':');
+        write(NEWLINE);
+
+        for (int address = block.getStart(); address < block.getEnd(); address += 2) {
+            if (position > BUFFER_SIZE - MAX_LINE) {
+                flush(out);
+            }
+
+            int instructionBytes = getWord(rom, address - 0x200);
+            writeText(address, instructionBytes, Instruction.parseInstructionBytes(instructionBytes));
+            write(NEWLINE);
+        }
+
+        if (position > BUFFER_SIZE - MAX_LINE) {
+            flush(out);
+        }
+        writeAscii("\t; ");
+
+        int[] successors = block.getSuccessors();
+        switch (block.getExit()) {
+            case CALL:
+                writeAscii("calls ");
+                writeLabel(blocks, block.getCallTarget());
+                writeAscii(", then -> ");
+                writeLabel(blocks, successors[0]);
+                break;
+            case RETURN:
+                writeAscii("returns");
+                break;
+            case COMPUTED_JUMP:
+                writeAscii("computed jump to ");
+                writeHex(getWord(rom, block.getLastInstruction() - 0x200) & 0x0FFF, 3, HEX_LOWER, true);
+                writeAscii(" + V0, not followed");
+                break;
+            default:
+                writeAscii("-> ");
+                for (int i = 0; i < successors.length; i++) {
+                    if (i > 0) {
+                        writeAscii(", ");
+                    }
+                    writeLabel(blocks, successors[i]);
+                }
+        }
+        write(NEWLINE);
+    }
+
+    // The label of the block at address, or just the address if there isn't one (e.g. it's outside the ROM)
+    private void writeLabel(BlockMap blocks, int address) {
+        Block block = blocks.getBlock(address);
+        if (block != null) {
+            writeAscii(block.getLabel());
+        } else {
+            writeHex(address, 4, HEX_LOWER, true);
+        }
+    }
+
+    // A single line of the TEXT format, without the line separator, e.g. to annotate a report with
+    public String getLine(int address, int instructionBytes) {
+        position = 0;
+        writeText(address, instructionBytes, Instruction.parseInstructionBytes(instructionBytes));
+
+        String line = new String(bytes, 0, position, StandardCharsets.US_ASCII);
+        position = 0;
+        return line;
+    }
+
+    private void flush(WritableByteChannel out) throws IOException {
+        buffer.clear().limit(position);
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+
+        position = 0;
+    }
+
+
+    // As the original String.format() version did, tabs and all
+    private void writeText(int location, int instructionBytes, Instruction instruction) {
+        writeHex(location, 4, HEX_LOWER, true);
+        writeByte('\t');
+        writeHex(instructionBytes, 4, HEX_UPPER, false);
+        writeByte('\t');
+
+        if (instruction == null) {
+            write(DATA);
+            return;
+        }
+
+        Opcode opcode = instruction.getOpcode();
+        write(TEXT_OPCODES[opcode.ordinal()]);
 
         if (opcode.usesNnn()) {
-            builder.append(String.format("nnn: 0x%03x\t", instruction.getNnn()));
+            writeOperand(NNN, instruction.getNnn(), 3);
+            writeByte('\t');
         } else {
-            builder.append("\t\t\t");
+            writeTabs(3);
         }
         if (opcode.usesN()) {
-            builder.append(String.format("n: 0x%x\t", instruction.getN()));
+            writeOperand(N, instruction.getN(), 1);
+            writeByte('\t');
         } else {
-            builder.append("\t\t");
+            writeTabs(2);
         }
         if (opcode.usesX()) {
-            builder.append(String.format("x: 0x%x\t", instruction.getX()));
+            writeOperand(X, instruction.getX(), 1);
+            writeByte('\t');
         } else {
-            builder.append("\t\t");
+            writeTabs(2);
         }
         if (opcode.usesY()) {
-            builder.append(String.format("y: 0x%x\t", instruction.getY()));
+            writeOperand(Y, instruction.getY(), 1);
+            writeByte('\t');
         } else {
-            builder.append("\t\t");
+            writeTabs(2);
         }
         if (opcode.usesKk()) {
-            builder.append(String.format("kk: 0x%02x", instruction.getKk()));
+            writeOperand(KK, instruction.getKk(), 2);
         } else {
-            builder.append("\t\t");
+            writeTabs(2);
+        }
+    }
+
+    // The columns of TSV_HEADER, with the numbers formatted as in TEXT
+    private void writeTsv(int location, int instructionBytes, Instruction instruction) {
+        writeHex(location, 4, HEX_LOWER, true);
+        writeByte('\t');
+        writeHex(instructionBytes, 4, HEX_UPPER, false);
+        writeByte('\t');
+
+        if (instruction == null) {
+            write(DATA);
+            writeTabs(5);
+            return;
+        }
+
+        Opcode opcode = instruction.getOpcode();
+        write(NAMES[opcode.ordinal()]);
+
+        writeByte('\t');
+        if (opcode.usesNnn()) {
+            writeHex(instruction.getNnn(), 3, HEX_LOWER, true);
+        }
+        writeByte('\t');
+        if (opcode.usesN()) {
+            writeHex(instruction.getN(), 1, HEX_LOWER, true);
+        }
+        writeByte('\t');
+        if (opcode.usesX()) {
+            writeHex(instruction.getX(), 1, HEX_LOWER, true);
+        }
+        writeByte('\t');
+        if (opcode.usesY()) {
+            writeHex(instruction.getY(), 1, HEX_LOWER, true);
+        }
+        writeByte('\t');
+        if (opcode.usesKk()) {
+            writeHex(instruction.getKk(), 2, HEX_LOWER, true);
+        }
+    }
+
+    // {"address":512,"word":224,"opcode":"CLS"}
+    private void writeJson(int location, int instructionBytes, Instruction instruction) {
+        writeByte('{');
+        writeJsonField("address", location);
+        writeByte(',');
+        writeJsonField("word", instructionBytes);
+        writeByte(',');
+        writeAscii("\"opcode\":\"");
+
+        if (instruction == null) {
+            write(DATA);
+            writeAscii("\"}");
+            return;
+        }
+
+        Opcode opcode = instruction.getOpcode();
+        write(NAMES[opcode.ordinal()]);
+        writeByte('"');
+
+        if (opcode.usesNnn()) {
+            writeByte(',');
+            writeJsonField("nnn", instruction.getNnn());
+        }
+        if (opcode.usesN()) {
+            writeByte(',');
+            writeJsonField("n", instruction.getN());
+        }
+        if (opcode.usesX()) {
+            writeByte(',');
+            writeJsonField("x", instruction.getX());
         }
+        if (opcode.usesY()) {
+            writeByte(',');
+            writeJsonField("y", instruction.getY());
+        }
+        if (opcode.usesKk()) {
+            writeByte(',');
+            writeJsonField("kk", instruction.getKk());
+        }
+        writeByte('}');
+    }
+
+
+    // e.g. "x: 0x4"
+    private void writeOperand(byte[] label, int value, int digits) {
+        write(label);
+        writeHex(value, digits, HEX_LOWER, true);
+    }
+
+    // "name":value. The names are all constants, so writeAscii() is fine here.
+    private void writeJsonField(String name, int value) {
+        writeByte('"');
+        writeAscii(name);
+        writeByte('"');
+        writeByte(':');
+        writeDecimal(value);
+    }
+
+    // At least minDigits digits, more if value needs them, like %0<minDigits>x
+    private void writeHex(int value, int minDigits, byte[] hex, boolean prefix) {
+        if (prefix) {
+            writeByte('0');
+            writeByte('x');
+        }
+
+        int digits = Math.max(minDigits, (32 - Integer.numberOfLeadingZeros(value) + 3) / 4);
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            bytes[position++] = hex[(value >>> shift) & 0xF];
+        }
+    }
+
+    // value is never negative
+    private void writeDecimal(int value) {
+        int digits = 1;
+        for (int i = value; i >= 10; i /= 10) {
+            digits++;
+        }
+
+        for (int i = position + digits - 1; i >= position; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        position += digits;
+    }
+
+    private void writeTabs(int count) {
+        for (int i = 0; i < count; i++) {
+            bytes[position++] = '\t';
+        }
+    }
+
+    private void writeAscii(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            bytes[position++] = (byte) string.charAt(i);
+        }
+    }
+
+    private void write(byte[] source) {
+        System.arraycopy(source, 0, bytes, position, source.length);
+        position += source.length;
+    }
+
+    private void writeByte(int value) {
+        bytes[position++] = (byte) value;
+    }
+
+
+    private static int getWord(ByteBuffer rom, int offset) {
+        return ((rom.get(offset) & 0xFF) << 8) | (rom.get(offset + 1) & 0xFF);
+    }
 
-        return builder.toString();
+    private static byte[] ascii(String string) {
+        return string.getBytes(StandardCharsets.US_ASCII);
     }
 
 }
@@ -0,0 +1,21 @@
+package me.sudsey.chip8.interpret;
+
+// Plays the tone for the sound timer. Kept free of any LWJGL types so the interpreter core can run without an audio
+// device.
+
+public interface Buzzer {
+
+    Buzzer NONE = new Buzzer() {
+        @Override
+        public void startPlaying() { }
+
+        @Override
+        public void stopPlaying() { }
+    };
+
+
+    void startPlaying();
+
+    void stopPlaying();
+
+}
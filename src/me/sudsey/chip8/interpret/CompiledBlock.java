@@ -0,0 +1,19 @@
+package me.sudsey.chip8.interpret;
+
+// A basic block translated to JVM bytecode by the Recompiler. Subclasses are generated at runtime, one per block.
+
+abstract class CompiledBlock {
+
+    final int start;    // Address of the first instruction
+    final int length;   // Number of instructions, each 2 bytes
+
+    CompiledBlock(int start, int length) {
+        this.start = start;
+        this.length = length;
+    }
+
+
+    // Runs every instruction in the block, leaving the processor exactly as the interpreter would.
+    abstract void run(Processor processor);
+
+}
@@ -0,0 +1,112 @@
+package me.sudsey.chip8.interpret;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Builds the RGB texture shown by the Terminal, with lit pixels fading out over a couple of frames to imitate phosphor
+// decay. Pixel intensities are quantised to a few levels, and each level's colour is worked out once up front, so a
+// frame is just table lookups. Only pixels whose level changes are rewritten, and update() says whether anything did, so
+// the upload can be skipped on frames where nothing changed.
+//
+// There are no OpenGL calls in here, so it can be built and benchmarked without a window.
+
+public class DisplayTexture {
+
+    public static final int WIDTH = 64;
+    public static final int HEIGHT = 32;
+
+    // Lit pixels start at the top level and drop one level per frame once they go out. Intensity halves each frame,
+    // going 1.0, 0.5, 0.0.
+    private static final int LEVELS = 3;
+    private static final int LIT = LEVELS - 1;
+
+    private static final byte[] palette = buildPalette(); // RGB triples, indexed by level * 3
+
+
+    private byte[] levels;      // Current level of each pixel, row-major
+    private int decaying;       // Pixels between off and lit, which will change next frame even if the display doesn't
+
+    private byte[] pixels;      // RGB bytes, built here and copied into the buffer in one go
+    private ByteBuffer buffer;
+
+    public DisplayTexture() {
+        this.levels = new byte[WIDTH * HEIGHT];
+        this.decaying = 0;
+
+        this.pixels = new byte[WIDTH * HEIGHT * 3];
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            System.arraycopy(palette, 0, pixels, i * 3, 3);
+        }
+
+        this.buffer = ByteBuffer.allocateDirect(pixels.length).order(ByteOrder.nativeOrder());
+        buffer.put(pixels).flip();
+    }
+
+
+    // Advances the fade by one frame against the given display (one long per row, as in VirtualDisplay). displayChanged
+    // can be false if the display is the same as last time, which makes frames with nothing fading free. Returns true if
+    // the texture changed.
+    public boolean update(long[] display, boolean displayChanged) {
+        if (!displayChanged && decaying == 0) {
+            return false;
+        }
+
+        boolean changed = false;
+        int decaying = 0;
+
+        for (int y = 0; y < HEIGHT; y++) {
+            long row = display[y];
+
+            for (int x = 0; x < WIDTH; x++) {
+                int i = y * WIDTH + x;
+                int level = levels[i];
+                int newLevel = (row << x) < 0 ? LIT : Math.max(level - 1, 0);
+
+                if (newLevel != level) {
+                    levels[i] = (byte) newLevel;
+                    pixels[i * 3] = palette[newLevel * 3];
+                    pixels[i * 3 + 1] = palette[newLevel * 3 + 1];
+                    pixels[i * 3 + 2] = palette[newLevel * 3 + 2];
+                    changed = true;
+                }
+                if (newLevel != 0 && newLevel != LIT) {
+                    decaying++;
+                }
+            }
+        }
+
+        this.decaying = decaying;
+
+        if (changed) {
+            buffer.clear();
+            buffer.put(pixels).flip();
+        }
+        return changed;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+
+    // Colours fade from a pale green (off) to near-black (lit), scaled by sqrt(log2(intensity + 1)).
+    private static byte[] buildPalette() {
+        byte[] palette = new byte[LEVELS * 3];
+
+        for (int level = 0; level < LEVELS; level++) {
+            double intensity = (double) level / LIT;
+            double scale = Math.sqrt(Math.log(intensity + 1) / Math.log(2));
+
+            palette[level * 3] = toByte(0.561 - 0.439 * scale);
+            palette[level * 3 + 1] = toByte(0.62 - 0.479 * scale);
+            palette[level * 3 + 2] = toByte(0.4 - 0.361 * scale);
+        }
+
+        return palette;
+    }
+
+    private static byte toByte(double colour) {
+        return (byte) Math.round(colour * 255);
+    }
+
+}
@@ -0,0 +1,24 @@
+package me.sudsey.chip8.interpret;
+
+// Back-of-the-envelope heap sizes, for reporting how much a machine costs. Assumes a 64-bit HotSpot with compressed
+// oops (the default below 32GB of heap): 12-byte object headers, 16-byte array headers, 4-byte references, and
+// everything padded to 8 bytes.
+
+class Footprint {
+
+    static final int REFERENCE = 4;
+
+
+    static long object(int fieldBytes) {
+        return align(12 + fieldBytes);
+    }
+
+    static long array(int length, int elementSize) {
+        return align(16 + (long) length * elementSize);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+}
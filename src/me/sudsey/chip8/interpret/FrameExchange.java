@@ -0,0 +1,50 @@
+package me.sudsey.chip8.interpret;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Hands frames from the processor thread to the render thread without either side ever blocking or waiting on the
+// other. It's a triple buffer: the writer owns one buffer, the reader owns another, and the third sits in between.
+// Publishing fills the writer's buffer and swaps it with the middle one; the reader swaps its buffer with the middle
+// one only when a frame it hasn't seen yet has been published there. The swaps are single atomic operations, which
+// also make the frame's contents visible to the other thread.
+//
+// Only one thread may publish, and only one thread may poll.
+
+public class FrameExchange {
+
+    private static final int FRESH = 4; // Set alongside the middle index while it holds a frame the reader hasn't seen
+
+
+    private long[][] buffers;
+
+    private AtomicInteger middle;
+    private int back;       // Owned by the writer
+    private int front;      // Owned by the reader
+
+    public FrameExchange() {
+        this.buffers = new long[3][32];
+
+        this.middle = new AtomicInteger(1);
+        this.back = 0;
+        this.front = 2;
+    }
+
+
+    public void publish(long[] frame) {
+        System.arraycopy(frame, 0, buffers[back], 0, 32);
+
+        back = middle.getAndSet(back | FRESH) & ~FRESH;
+    }
+
+    // Returns the latest published frame if there's been one since the last poll, or null otherwise. The returned
+    // array belongs to the reader until its next call.
+    public long[] poll() {
+        if ((middle.get() & FRESH) == 0) {
+            return null;
+        }
+
+        front = middle.getAndSet(front) & ~FRESH;
+        return buffers[front];
+    }
+
+}
@@ -0,0 +1,114 @@
+package me.sudsey.chip8.interpret;
+
+import me.sudsey.chip8.commons.Options;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Logs key presses and releases, each stamped with the number of instructions executed before it took effect, so that
+// InputReplay can feed them back at exactly the same points.
+//
+// Keys from the window are handed to the processor thread with Processor.post(), and only pressed there, between
+// blocks. That way the stamp is exactly where the key took effect, at the cost of up to a block (20ms) of latency.
+//
+// The file is a header followed by events, appended as they happen:
+//
+//     "C8IN", version (1 byte), IPS (4), seed (8), flags (1, bit 0 = --clip-edges)
+//     per event: instructions since the previous event (varint), then 0x1k for press of key k, 0x0k for release
+//     at the end: instructions since the last event (varint), then 0xFF
+//
+// Varints are little-endian base-128. A file cut short by a crash still replays up to its last complete event.
+
+public class InputRecorder implements KeyInput {
+
+    static final int MAGIC = 0x4338494E; // "C8IN"
+    static final int VERSION = 1;
+
+    static final int PRESS = 0x10;
+    static final int END = 0xFF;
+
+
+    private Processor processor;
+    private VirtualKeyboard keyboard;
+
+    private OutputStream out;
+    private long lastStamp;
+    private int events;
+
+    public InputRecorder(String path, Options options, Processor processor, VirtualKeyboard keyboard)
+            throws IOException {
+        this.processor = processor;
+        this.keyboard = keyboard;
+
+        this.out = new BufferedOutputStream(new FileOutputStream(path));
+
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeInt(options.getInstructionsPerSecond());
+        header.writeLong(options.getSeed());
+        header.writeByte(options.isClipEdges() ? 1 : 0);
+        out.flush();
+    }
+
+
+    @Override
+    public void pressKey(int key) {
+        processor.post(() -> {
+            keyboard.pressKey(key);
+            write(PRESS | key);
+        });
+    }
+
+    @Override
+    public void releaseKey(int key) {
+        processor.post(() -> {
+            keyboard.releaseKey(key);
+            write(key);
+        });
+    }
+
+    // Marks where the recording stopped. Call once the processor has stopped.
+    public void close() {
+        write(END);
+
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Could not finish input recording. Error: " + e.toString());
+        }
+    }
+
+    public int getEvents() {
+        return events;
+    }
+
+
+    private void write(int event) {
+        long stamp = processor.getInstructions();
+        long delta = stamp - lastStamp;
+        lastStamp = stamp;
+
+        try {
+            while (delta >= 0x80) {
+                out.write((int) (delta | 0x80));
+                delta >>>= 7;
+            }
+            out.write((int) delta);
+            out.write(event);
+
+            // Keep the file complete as of the last event, in case the emulator doesn't get to close it
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Could not record input. Error: " + e.toString());
+        }
+
+        if (event != END) {
+            events++;
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+package me.sudsey.chip8.interpret;
+
+import me.sudsey.chip8.commons.Options;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+// Plays back a file written by InputRecorder. The processor stops at every event's stamp to apply it, including in
+// recompiled code, so keys take effect at exactly the instruction they did when recorded.
+
+public class InputReplay {
+
+    private long[] stamps;  // Instructions executed before each event, ascending
+    private int[] events;   // InputRecorder.PRESS | key, or just key for a release
+    private long end;       // Instructions executed when the recording stopped, -1 if it was cut short
+    private int next;       // Index of the next event to apply
+
+    private String header;  // The recording's settings, to warn about a mismatch
+
+    private InputReplay(long[] stamps, int[] events, long end, String header) {
+        this.stamps = stamps;
+        this.events = events;
+        this.end = end;
+        this.header = header;
+    }
+
+
+    public static InputReplay read(String path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get(path)));
+
+        if (buffer.remaining() < 18 || buffer.getInt() != InputRecorder.MAGIC) {
+            throw new IOException(path + " is not an input recording");
+        }
+        int version = buffer.get();
+        if (version != InputRecorder.VERSION) {
+            throw new IOException("Unsupported input recording version " + version + ", expected " +
+                    InputRecorder.VERSION);
+        }
+        String header = describeSettings(buffer.getInt(), buffer.getLong(), (buffer.get() & 1) != 0);
+
+        long[] stamps = new long[buffer.remaining() / 2];
+        int[] events = new int[stamps.length];
+        int count = 0;
+        long stamp = 0;
+        long end = -1;
+
+        while (buffer.hasRemaining()) {
+            long delta = readVarint(buffer);
+
+            // Cut short partway through an event
+            if (delta == -1 || !buffer.hasRemaining()) {
+                break;
+            }
+
+            stamp += delta;
+            int event = buffer.get() & 0xFF;
+
+            if (event == InputRecorder.END) {
+                end = stamp;
+                break;
+            }
+
+            stamps[count] = stamp;
+            events[count] = event;
+            count++;
+        }
+
+        return new InputReplay(Arrays.copyOf(stamps, count), Arrays.copyOf(events, count), end, header);
+    }
+
+    // Returns -1 if the buffer runs out first
+    private static long readVarint(ByteBuffer buffer) {
+        long value = 0;
+
+        for (int shift = 0; buffer.hasRemaining(); shift += 7) {
+            int b = buffer.get() & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+
+            if (b < 0x80) {
+                return value;
+            }
+        }
+        return -1;
+    }
+
+    private static String describeSettings(int instructionsPerSecond, long seed, boolean clipEdges) {
+        return instructionsPerSecond + " IPS, seed " + seed + (clipEdges ? ", clipping edges" : "");
+    }
+
+    // Describes how options differ from the ones the recording was made with, or returns null if they match
+    public String findSettingsDifference(Options options) {
+        String settings = describeSettings(options.getInstructionsPerSecond(), options.getSeed(),
+                options.isClipEdges());
+
+        return settings.equals(header) ? null : "Recorded with " + header + ", replaying with " + settings;
+    }
+
+
+    // Back to the first event, for when the machine is reset
+    void restart() {
+        next = 0;
+    }
+
+    // Applies every event stamped at or before instructions
+    void applyDue(long instructions, VirtualKeyboard keyboard) {
+        while (next < stamps.length && stamps[next] <= instructions) {
+            int event = events[next++];
+
+            if ((event & InputRecorder.PRESS) != 0) {
+                keyboard.pressKey(event & 0xF);
+            } else {
+                keyboard.releaseKey(event & 0xF);
+            }
+        }
+    }
+
+    // Instructions that can run before the next event is due, Long.MAX_VALUE once they've all been applied
+    long getInstructionsUntilNext(long instructions) {
+        return next < stamps.length ? stamps[next] - instructions : Long.MAX_VALUE;
+    }
+
+
+    public int getEvents() {
+        return stamps.length;
+    }
+
+    public boolean isFinished() {
+        return next == stamps.length;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+}
@@ -2,22 +2,342 @@ package me.sudsey.chip8.interpret;
 
 import me.sudsey.chip8.commons.Options;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.lwjgl.glfw.GLFW.GLFW_KEY_BACKSPACE;
+import static org.lwjgl.glfw.GLFW.GLFW_KEY_F5;
+import static org.lwjgl.glfw.GLFW.GLFW_KEY_F9;
+
 public class Interpreter {
 
-    public static void run(Options options, int[] rom) {
+    private static final String DEFAULT_STATE_PATH = "chip8.state";
+    private static final String METRICS_DOMAIN = "me.sudsey.chip8";
+
+
+    public static void run(Options options, Path romPath) {
         Terminal terminal = new Terminal();
         Speaker speaker = new Speaker();
-        terminal.init();
-        speaker.init();
 
         Machine machine = new Machine(options, terminal, speaker);
-        machine.init();
 
-        machine.start(rom);
+        // When replaying, only the recording presses keys
+        InputRecorder recorder = null;
+        if (options.getReplay() != null) {
+            InputReplay replay = readReplay(options);
+            if (replay == null) {
+                return;
+            }
+            machine.enableReplay(replay);
+        } else if (options.getRecord() != null) {
+            if (options.isWallClockTimers() && !options.isUncapped()) {
+                System.err.println("Warning: timers follow the wall clock, so the recording won't replay exactly");
+            }
+
+            try {
+                recorder = machine.enableRecording(options.getRecord(), options);
+            } catch (IOException e) {
+                System.err.println("Could not start input recording. Error: " + e.toString());
+                return;
+            }
+            terminal.setKeyboard(recorder);
+        } else {
+            terminal.setKeyboard(machine.getKeyboard());
+        }
+
+        // Going back in time would leave a recording or replay out of step with the machine
+        boolean timeTravel = options.getReplay() == null && options.getRecord() == null;
+
+        // F5 saves to --save-state, F9 loads from --load-state, and either falls back to the other
+        String savePath = options.getSaveState() != null ? options.getSaveState() :
+                options.getLoadState() != null ? options.getLoadState() : DEFAULT_STATE_PATH;
+        String loadPath = options.getLoadState() != null ? options.getLoadState() : savePath;
+
+        terminal.setHotkey(GLFW_KEY_F5, () -> machine.post(() -> saveStateFile(machine, savePath)));
+        if (timeTravel) {
+            terminal.setHotkey(GLFW_KEY_F9, () -> {
+                byte[] state = readStateFile(loadPath);
+                if (state != null) {
+                    machine.post(() -> restoreState(machine, state, loadPath));
+                }
+            });
+        }
+
+        // Holding backspace rewinds
+        if (timeTravel && options.getRewindMegabytes() > 0) {
+            RewindBuffer rewindBuffer = machine.enableRewind(options.getRewindMegabytes() * 1024L * 1024L);
+
+            terminal.setHotkey(GLFW_KEY_BACKSPACE, () -> rewindBuffer.setRewinding(true),
+                    () -> rewindBuffer.setRewinding(false));
+        }
+
+        if (options.getProfile() != null) {
+            machine.enableProfiling();
+        }
+
+        if (!loadROM(machine, romPath)) {
+            return;
+        }
+        if (options.getLoadState() != null && !loadStateFile(machine, options.getLoadState())) {
+            return;
+        }
+
+        List<ObjectName> metrics = registerMetrics(machine.enableMetrics(), terminal.enableMetrics());
+
+        terminal.init();
+        speaker.init();
+
+        machine.start();
         terminal.start(); // Main loop
         machine.stop();
 
+        unregisterMetrics(metrics);
+
+        if (recorder != null) {
+            recorder.close();
+            System.out.println("Recorded " + recorder.getEvents() + " key events to " + options.getRecord());
+        }
+
+        if (options.isDecodeStats()) {
+            System.out.println(machine.getMemory().getDecodeStats());
+        }
+        if (machine.getRewindBuffer() != null) {
+            System.out.println(machine.getRewindBuffer().getStats());
+        }
+        if (machine.getProfiler() != null) {
+            writeProfile(machine, options.getProfile());
+        }
+
         speaker.destroy();
     }
 
+    // Runs without a window or audio device, stepping the processor on the calling thread. Emulated timing follows the
+    // windowed mode (--ips instructions per second, timers at 60Hz), but it always runs uncapped, and always with timers
+    // derived from the instruction count. Nothing can press keys, so a program waiting on LD_Vx_K stays halted until the
+    // run ends.
+    public static void runHeadless(Options options, Path romPath) {
+        if (options.isWallClockTimers()) {
+            System.err.println("Headless runs can't use --wall-clock-timers");
+            return;
+        }
+
+        Machine machine = new Machine(options, Screen.NONE, Buzzer.NONE);
+
+        // A replay stops where its recording did, unless told to stop sooner
+        long instructions = options.getInstructions();
+        InputReplay replay = null;
+        if (options.getReplay() != null) {
+            replay = readReplay(options);
+            if (replay == null) {
+                return;
+            }
+            machine.enableReplay(replay);
+
+            if (replay.getEnd() != -1) {
+                instructions = Math.min(instructions, replay.getEnd());
+            }
+        }
+
+        if (options.getProfile() != null) {
+            machine.enableProfiling();
+        }
+
+        if (!loadROM(machine, romPath)) {
+            return;
+        }
+        if (options.getLoadState() != null && !loadStateFile(machine, options.getLoadState())) {
+            return;
+        }
+
+        Processor processor = machine.getProcessor();
+        long startTime = System.nanoTime();
+
+        machine.run(options.getFrames(), instructions);
+
+        long executed = processor.getInstructions();
+        long frames = processor.getFrames();
+        long elapsed = System.nanoTime() - startTime;
+
+        System.out.println(String.format("Ran %d instructions over %d frames in %.2fs (%.0f instructions per second)",
+                executed, frames, elapsed / 1e9, executed / (elapsed / 1e9)));
+        if (replay != null) {
+            System.out.println("Replayed " + (replay.isFinished() ? "all " : "part of ") + replay.getEvents() +
+                    " key events" + (replay.getEnd() == -1 ? " (the recording was cut short)" : ""));
+        }
+        if (options.isDecodeStats()) {
+            System.out.println(machine.getMemory().getDecodeStats());
+        }
+        if (machine.getProfiler() != null) {
+            writeProfile(machine, options.getProfile());
+        }
+        System.out.println();
+        dumpDisplay(machine.getDisplay());
+        System.out.println();
+        dumpRegisters(processor);
+
+        if (options.getSaveState() != null) {
+            saveStateFile(machine, options.getSaveState());
+        }
+    }
+
+
+    private static boolean loadROM(Machine machine, Path romPath) {
+        try {
+            machine.load(romPath);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Could not read ROM file. Error: " + e.toString());
+            return false;
+        }
+    }
+
+    private static InputReplay readReplay(Options options) {
+        InputReplay replay;
+        try {
+            replay = InputReplay.read(options.getReplay());
+        } catch (IOException e) {
+            System.err.println("Could not read input recording. Error: " + e.toString());
+            return null;
+        }
+
+        String difference = replay.findSettingsDifference(options);
+        if (difference != null) {
+            System.err.println("Warning: " + difference + ", so the replay may not play out the same");
+        }
+
+        return replay;
+    }
+
+    // Publishes the metrics over JMX, for JConsole, VisualVM or the like to watch while the game runs. Returns the
+    // names of whichever were registered.
+    private static List<ObjectName> registerMetrics(ProcessorMetrics processor, TerminalMetrics terminal) {
+        Map<String, Object> beans = new LinkedHashMap<>();
+        beans.put("type=Processor", processor);
+        beans.put("type=Terminal", terminal);
+        beans.put("type=Latency,name=Block", processor.getBlockLatency());
+        beans.put("type=Latency,name=BlockDelay", processor.getBlockDelay());
+        beans.put("type=Latency,name=TimerDelay", processor.getTimerDelay());
+        beans.put("type=Latency,name=FrameTime", terminal.getFrameTime());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        List<ObjectName> names = new ArrayList<>();
+
+        try {
+            for (Map.Entry<String, Object> bean : beans.entrySet()) {
+                ObjectName name = new ObjectName(METRICS_DOMAIN + ":" + bean.getKey());
+                server.registerMBean(bean.getValue(), name);
+                names.add(name);
+            }
+        } catch (JMException e) {
+            System.err.println("Could not register metrics over JMX. Error: " + e.toString());
+        }
+
+        return names;
+    }
+
+    private static void unregisterMetrics(List<ObjectName> names) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        for (ObjectName name : names) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                // Already gone
+            }
+        }
+    }
+
+    private static void writeProfile(Machine machine, String path) {
+        Profiler profiler = machine.getProfiler();
+        String stacksPath = path + ".folded";
+
+        try {
+            profiler.writeReport(Paths.get(path), machine.getProcessor());
+            profiler.writeCollapsedStacks(Paths.get(stacksPath));
+            System.out.println("Wrote profile to " + path + ", and call stacks to " + stacksPath);
+        } catch (IOException e) {
+            System.err.println("Could not write profile. Error: " + e.toString());
+        }
+    }
+
+    private static void saveStateFile(Machine machine, String path) {
+        byte[] state = machine.saveState();
+
+        try {
+            Files.write(Paths.get(path), state);
+            System.out.println("Saved state to " + path);
+        } catch (IOException e) {
+            System.err.println("Could not write save state. Error: " + e.toString());
+        }
+    }
+
+    private static boolean loadStateFile(Machine machine, String path) {
+        byte[] state = readStateFile(path);
+
+        return state != null && restoreState(machine, state, path);
+    }
+
+    private static byte[] readStateFile(String path) {
+        try {
+            return Files.readAllBytes(Paths.get(path));
+        } catch (IOException e) {
+            System.err.println("Could not read save state. Error: " + e.toString());
+            return null;
+        }
+    }
+
+    private static boolean restoreState(Machine machine, byte[] state, String path) {
+        try {
+            machine.loadState(state);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Could not load save state " + path + ": " + e.getMessage());
+            return false;
+        }
+
+        System.out.println("Loaded state from " + path);
+        return true;
+    }
+
+
+    private static void dumpDisplay(VirtualDisplay display) {
+        StringBuilder builder = new StringBuilder();
+
+        for (int y = 0; y < 32; y++) {
+            for (int x = 0; x < 64; x++) {
+                builder.append(display.isPixelSet(x, y) ? '#' : '.');
+            }
+            builder.append('\n');
+        }
+
+        System.out.print(builder);
+    }
+
+    private static void dumpRegisters(Processor processor) {
+        StringBuilder builder = new StringBuilder();
+
+        for (int x = 0; x < 16; x++) {
+            builder.append(String.format("V%X: 0x%02x\t", x, processor.getRegister(x)));
+            if (x % 4 == 3) {
+                builder.append('\n');
+            }
+        }
+
+        builder.append(String.format("I:  0x%04x\tPC: 0x%04x\tSP: 0x%02x\n",
+                processor.getI(), processor.getPc(), processor.getSp()));
+        builder.append(String.format("DT: 0x%02x\tST: 0x%02x%s\n",
+                processor.getDT(), processor.getST(), processor.isWaitingForKey() ? "\t(waiting for key)" : ""));
+
+        System.out.print(builder);
+    }
+
 }
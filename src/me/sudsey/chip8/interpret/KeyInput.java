@@ -0,0 +1,11 @@
+package me.sudsey.chip8.interpret;
+
+// Somewhere for the window to send key presses: straight to a VirtualKeyboard, or through an InputRecorder.
+
+public interface KeyInput {
+
+    void pressKey(int key);
+
+    void releaseKey(int key);
+
+}
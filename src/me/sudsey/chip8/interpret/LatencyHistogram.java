@@ -0,0 +1,138 @@
+package me.sudsey.chip8.interpret;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Durations in nanoseconds, counted into buckets so any percentile can be read off later without keeping the samples.
+// Below 16ns every value has its own bucket; above that, each power of two is split into 8 buckets, so a percentile is
+// never more than an eighth out.
+//
+// Recording is a couple of uncontended adds, cheap enough to leave on. Any thread may record and read at once; a read
+// that races with a record may or may not include it.
+
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+    private static final int EXACT = 16;       // Values below this get a bucket each
+    private static final int SUB_BUCKETS = 8;  // Buckets per power of two above that
+    private static final int BUCKETS = EXACT + (63 - 4) * SUB_BUCKETS;
+
+
+    private LongAdder[] buckets;
+    private LongAdder sum;
+    private LongAccumulator max;
+
+    public LatencyHistogram() {
+        this.buckets = new LongAdder[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+
+        this.sum = new LongAdder();
+        this.max = new LongAccumulator(Math::max, 0);
+    }
+
+
+    // Negative durations (e.g. a task that ran early) count as 0
+    public void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+
+        buckets[getBucket(nanos)].increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    private static int getBucket(long nanos) {
+        if (nanos < EXACT) {
+            return (int) nanos;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+        return EXACT + (exponent - 4) * SUB_BUCKETS + subBucket;
+    }
+
+    // The largest value that goes in bucket
+    private static long getUpperBound(int bucket) {
+        if (bucket < EXACT) {
+            return bucket;
+        }
+
+        int exponent = (bucket - EXACT) / SUB_BUCKETS + 4;
+        int subBucket = (bucket - EXACT) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - 3)) - 1;
+    }
+
+
+    // The duration that fraction of the recorded ones were at or under, in nanoseconds. 0 if nothing's been recorded.
+    public long getPercentile(double fraction) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(getUpperBound(i), max.get());
+            }
+        }
+
+        return 0;
+    }
+
+    @Override
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+
+        return count;
+    }
+
+    @Override
+    public double getMeanMicros() {
+        long count = getCount();
+        return count > 0 ? sum.sum() / 1e3 / count : 0;
+    }
+
+    @Override
+    public double get50thPercentileMicros() {
+        return getPercentile(0.5) / 1e3;
+    }
+
+    @Override
+    public double get90thPercentileMicros() {
+        return getPercentile(0.9) / 1e3;
+    }
+
+    @Override
+    public double get99thPercentileMicros() {
+        return getPercentile(0.99) / 1e3;
+    }
+
+    @Override
+    public double get999thPercentileMicros() {
+        return getPercentile(0.999) / 1e3;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return max.get() / 1e3;
+    }
+
+    // Starts counting afresh, e.g. to look at a later part of a long session on its own
+    @Override
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        sum.reset();
+        max.reset();
+    }
+
+}
@@ -0,0 +1,23 @@
+package me.sudsey.chip8.interpret;
+
+// See LatencyHistogram. Percentiles are in microseconds, and accurate to within an eighth.
+
+public interface LatencyHistogramMBean {
+
+    long getCount();
+
+    double getMeanMicros();
+
+    double get50thPercentileMicros();
+
+    double get90thPercentileMicros();
+
+    double get99thPercentileMicros();
+
+    double get999thPercentileMicros();
+
+    double getMaxMicros();
+
+    void reset();
+
+}
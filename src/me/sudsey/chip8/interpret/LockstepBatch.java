@@ -0,0 +1,891 @@
+package me.sudsey.chip8.interpret;
+
+import me.sudsey.chip8.commons.Instruction;
+import me.sudsey.chip8.commons.Options;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Many copies of one ROM run in lockstep, e.g. for reinforcement learning rollouts, where each copy (lane) gets its own
+// seed and input but their control flow mostly stays together.
+//
+// Registers, I, PC, SP, the stack and the timers are held struct-of-arrays: one array per register, indexed by lane.
+// While every lane is at the same PC, and none of them has written near the instruction there, they're
+// all about to execute the ROM's instruction, so a step fetches it once and executes it across every lane. Fetch,
+// decode and dispatch are paid per step rather than per lane, and the register updates are tight loops over the lanes.
+// Otherwise each lane fetches its own instruction, and each distinct instruction is executed once across the group of
+// lanes that fetched it. Past MAX_GROUPS groups in a step, the stragglers are run one at a time rather than searched
+// for matches. Every lane executes exactly one instruction per step, so the instruction count, frame count and timer
+// budget are shared.
+//
+// Memory, the display and the keyboard stay per lane (Memory shares the ROM's pages, see RomImage), and instructions
+// that touch them run lane by lane within their group. Reads from blocks a lane hasn't written go to one shared copy of
+// the ROM instead, which stays in cache.
+//
+// A lane that crashes (e.g. CALL past the 16th stack level) stops there and the others carry on. With
+// --lockstep-verify, each lane is shadowed by an ordinary Machine, and after every run() all of them are checked
+// against it, as with --jit-verify.
+
+public class LockstepBatch {
+
+    private static final int TIMER_HZ = 60;
+    private static final int MAX_GROUPS = 8; // Per step
+    private static final int BLOCK_BITS = 6; // Writes are tracked in 64-byte blocks, one bit each in a long
+
+
+    private Options options;
+    private int lanes;
+
+    // Per register, then per lane
+    private int[][] regsVx;
+    private int[][] stack;
+
+    private int[] regI;
+    private int[] regDT;
+    private int[] regST;
+    private int[] pc;
+    private int[] sp;
+    private long[] randomState;
+    private boolean[] waitingForKey;
+
+    private Memory image;           // The ROM as loaded, never written to
+    private Memory[] memories;
+    private long[] writtenBlocks;   // Blocks each lane has written to, where its memory may no longer match image
+    private VirtualDisplay[] displays;
+    private VirtualKeyboard[] keyboards;
+
+    private long instructions;
+    private long frames;
+    private int timerBudget;
+
+    private int[] live;     // Lanes that haven't crashed
+    private int liveCount;
+    private RuntimeException[] crashes;
+    private long[] crashInstructions; // Instruction count each lane crashed at
+    private boolean crashed;          // Some lane has crashed since the last removeCrashed()
+
+    // Scratch space for step()
+    private Instruction[] fetched; // By lane
+    private int[] pending;
+    private int[] group;
+
+    private long steps;
+    private long executed;     // Instructions executed, summed over lanes
+    private long groups;
+    private long uniformSteps; // Steps where every lane ran the same instruction
+
+    private Machine[] shadows; // null unless verifying
+    private RuntimeException[] shadowCrashes;
+
+    public LockstepBatch(Options options, RomImage image, int lanes, long firstSeed) {
+        if (options.isWallClockTimers()) {
+            throw new IllegalArgumentException("Lockstep batches can't use --wall-clock-timers");
+        }
+
+        this.options = options;
+        this.lanes = lanes;
+
+        this.regsVx = new int[16][lanes];
+        this.stack = new int[16][lanes];
+
+        this.regI = new int[lanes];
+        this.regDT = new int[lanes];
+        this.regST = new int[lanes];
+        this.pc = new int[lanes];
+        this.sp = new int[lanes];
+        this.randomState = new long[lanes];
+        this.waitingForKey = new boolean[lanes];
+
+        this.image = new Memory();
+        this.image.loadImage(image);
+        this.memories = new Memory[lanes];
+        this.writtenBlocks = new long[lanes];
+        this.displays = new VirtualDisplay[lanes];
+        this.keyboards = new VirtualKeyboard[lanes];
+
+        this.live = new int[lanes];
+        this.liveCount = lanes;
+        this.crashes = new RuntimeException[lanes];
+        this.crashInstructions = new long[lanes];
+
+        this.fetched = new Instruction[lanes];
+        this.pending = new int[lanes];
+        this.group = new int[lanes];
+
+        for (int lane = 0; lane < lanes; lane++) {
+            pc[lane] = 0x200;
+            randomState[lane] = Processor.seedRandom(firstSeed + lane);
+
+            memories[lane] = new Memory();
+            memories[lane].loadImage(image);
+            displays[lane] = new VirtualDisplay(Screen.NONE);
+            keyboards[lane] = new VirtualKeyboard();
+            keyboards[lane].setClock(this::getInstructions);
+
+            live[lane] = lane;
+        }
+
+        if (options.isLockstepVerify()) {
+            shadows = new Machine[lanes];
+            shadowCrashes = new RuntimeException[lanes];
+            for (int lane = 0; lane < lanes; lane++) {
+                shadows[lane] = new Machine(options, Screen.NONE, Buzzer.NONE);
+                shadows[lane].load(image, firstSeed + lane);
+            }
+        }
+    }
+
+
+    // Runs every live lane for another count instructions
+    public void run(long count) {
+        for (long i = 0; i < count && liveCount > 0; i++) {
+            step();
+        }
+
+        if (shadows != null) {
+            verify();
+        }
+    }
+
+    // Runs every live lane for another count 60Hz frames
+    public void runFrames(long count) {
+        run(getInstructionsUntilFrame(frames + count));
+    }
+
+    // As Processor.getInstructionsUntilFrame()
+    public long getInstructionsUntilFrame(long frame) {
+        if (frame <= frames) {
+            return 0;
+        }
+        if (frame - frames > Long.MAX_VALUE / options.getInstructionsPerSecond()) {
+            return Long.MAX_VALUE;
+        }
+
+        long needed = (frame - frames) * options.getInstructionsPerSecond() - timerBudget;
+        return Math.max((needed + TIMER_HZ - 1) / TIMER_HZ, 1);
+    }
+
+
+    private void step() {
+        int leaderPc = pc[live[0]];
+
+        // The blocks the leader's instruction is in. PCs past the end of memory never take the fast path.
+        boolean uniform = leaderPc + 1 < Memory.SIZE;
+        long blocks = uniform ? (1L << (leaderPc >>> BLOCK_BITS)) | (1L << ((leaderPc + 1) >>> BLOCK_BITS)) : 0;
+
+        for (int i = 0; i < liveCount && uniform; i++) {
+            int lane = live[i];
+            uniform = pc[lane] == leaderPc && (writtenBlocks[lane] & blocks) == 0;
+        }
+
+        if (uniform) {
+            execute(image.getInstruction(leaderPc), live, liveCount);
+            uniformSteps++;
+        } else {
+            executeDiverged();
+        }
+
+        removeCrashed();
+
+        for (int i = 0; i < liveCount; i++) {
+            int lane = live[i];
+            pc[lane] = (pc[lane] + 2) & 0xFFFF;
+        }
+
+        // As Processor.retire(), for every lane at once
+        instructions++;
+        timerBudget += TIMER_HZ;
+        while (timerBudget >= options.getInstructionsPerSecond()) {
+            timerBudget -= options.getInstructionsPerSecond();
+            tickTimers();
+        }
+
+        steps++;
+        executed += liveCount;
+    }
+
+    // Fetches each lane's own instruction, then executes them in groups of lanes that fetched the same one
+    private void executeDiverged() {
+        for (int i = 0; i < liveCount; i++) {
+            int lane = live[i];
+            try {
+                fetched[lane] = memories[lane].getInstruction(pc[lane]);
+            } catch (RuntimeException e) {
+                crash(lane, e);
+            }
+        }
+        removeCrashed();
+
+        System.arraycopy(live, 0, pending, 0, liveCount);
+        int pendingCount = liveCount;
+
+        for (int passes = 0; pendingCount > 0; passes++) {
+            if (passes == MAX_GROUPS) {
+                for (int i = 0; i < pendingCount; i++) {
+                    group[0] = pending[i];
+                    execute(fetched[pending[i]], group, 1);
+                }
+                break;
+            }
+
+            // Pull every lane that fetched the same instruction as the first pending one into the group
+            Instruction leader = fetched[pending[0]];
+            int groupCount = 0;
+            int kept = 0;
+            for (int i = 0; i < pendingCount; i++) {
+                int lane = pending[i];
+                if (fetched[lane] == leader) {
+                    group[groupCount++] = lane;
+                } else {
+                    pending[kept++] = lane;
+                }
+            }
+            pendingCount = kept;
+
+            execute(leader, group, groupCount);
+        }
+    }
+
+    private void tickTimers() {
+        for (int i = 0; i < liveCount; i++) {
+            int lane = live[i];
+
+            if (regDT[lane] > 0) {
+                regDT[lane]--;
+            }
+            if (regST[lane] > 0) {
+                regST[lane]--;
+            }
+        }
+
+        frames++;
+    }
+
+    private void crash(int lane, RuntimeException e) {
+        crashes[lane] = e;
+        crashInstructions[lane] = instructions;
+        crashed = true;
+    }
+
+    private void removeCrashed() {
+        if (!crashed) {
+            return;
+        }
+        crashed = false;
+
+        int kept = 0;
+        for (int i = 0; i < liveCount; i++) {
+            if (crashes[live[i]] == null) {
+                live[kept++] = live[i];
+            }
+        }
+
+        liveCount = kept;
+    }
+
+
+    // Executes instruction on count lanes of the given list. Instructions that can throw (stack, memory and keyboard
+    // accesses) catch per lane, so a crash only stops the lane it happened in.
+    private void execute(Instruction instruction, int[] lanes, int count) {
+        groups++;
+
+        if (instruction == null) {
+            return;
+        }
+
+        int nnn = instruction.getNnn();
+        int n = instruction.getN();
+        int x = instruction.getX();
+        int y = instruction.getY();
+        int kk = instruction.getKk();
+
+        switch (instruction.getOpcode()) {
+            case CLS:           CLS(lanes, count);                  break;
+            case RET:           RET(lanes, count);                  break;
+            case JP:            JP(lanes, count, nnn);              break;
+            case CALL:          CALL(lanes, count, nnn);            break;
+            case SE_Vx_byte:    SE_Vx_byte(lanes, count, x, kk);    break;
+            case SNE_Vx_byte:   SNE_Vx_byte(lanes, count, x, kk);   break;
+            case SE_Vx_Vy:      SE_Vx_Vy(lanes, count, x, y);       break;
+            case LD_Vx_byte:    LD_Vx_byte(lanes, count, x, kk);    break;
+            case ADD_Vx_byte:   ADD_Vx_byte(lanes, count, x, kk);   break;
+            case LD_Vx_Vy:      LD_Vx_Vy(lanes, count, x, y);       break;
+            case OR:            OR(lanes, count, x, y);             break;
+            case AND:           AND(lanes, count, x, y);            break;
+            case XOR:           XOR(lanes, count, x, y);            break;
+            case ADD_Vx_Vy:     ADD_Vx_Vy(lanes, count, x, y);      break;
+            case SUB:           SUB(lanes, count, x, y);            break;
+            case SHR:           SHR(lanes, count, x);               break;
+            case SUBN:          SUBN(lanes, count, x, y);           break;
+            case SHL:           SHL(lanes, count, x);               break;
+            case SNE_Vx_Vy:     SNE_Vx_Vy(lanes, count, x, y);      break;
+            case LD_I_addr:     LD_I_addr(lanes, count, nnn);       break;
+            case JP_V0_addr:    JP_V0_addr(lanes, count, nnn);      break;
+            case RND:           RND(lanes, count, x, kk);           break;
+            case DRW:           DRW(lanes, count, x, y, n);         break;
+            case SKP:           SKP(lanes, count, x);               break;
+            case SKNP:          SKNP(lanes, count, x);              break;
+            case LD_Vx_DT:      LD_Vx_DT(lanes, count, x);          break;
+            case LD_Vx_K:       LD_Vx_K(lanes, count, x);           break;
+            case LD_DT_Vx:      LD_DT_Vx(lanes, count, x);          break;
+            case LD_ST_Vx:      LD_ST_Vx(lanes, count, x);          break;
+            case ADD_I_Vx:      ADD_I_Vx(lanes, count, x);          break;
+            case LD_F_Vx:       LD_F_Vx(lanes, count, x);           break;
+            case LD_B_Vx:       LD_B_Vx(lanes, count, x);           break;
+            case LD_I_Vx:       LD_I_Vx(lanes, count, x);           break;
+            case LD_Vx_I:       LD_Vx_I(lanes, count, x);
+        }
+    }
+
+
+    // One method per Opcode, as in Processor, which has the full descriptions. Each does exactly what the Processor
+    // method does, in the same order, so that e.g. x = F still ends up with the same VF.
+
+    private void CLS(int[] lanes, int count) {
+        for (int i = 0; i < count; i++) {
+            displays[lanes[i]].clear();
+        }
+    }
+
+    private void RET(int[] lanes, int count) {
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            try {
+                pc[lane] = stack[sp[lane]][lane];
+                sp[lane] = (sp[lane] - 1) & 0xFF;
+            } catch (RuntimeException e) {
+                crash(lane, e);
+            }
+        }
+    }
+
+    private void JP(int[] lanes, int count, int nnn) {
+        for (int i = 0; i < count; i++) {
+            pc[lanes[i]] = (nnn - 2) & 0xFFFF;
+        }
+    }
+
+    private void CALL(int[] lanes, int count, int nnn) {
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            try {
+                sp[lane] = (sp[lane] + 1) & 0xFF;
+                stack[sp[lane]][lane] = pc[lane];
+                pc[lane] = (nnn - 2) & 0xFFFF;
+            } catch (RuntimeException e) {
+                crash(lane, e);
+            }
+        }
+    }
+
+    private void SE_Vx_byte(int[] lanes, int count, int x, int kk) {
+        int[] Vx = regsVx[x];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            if (Vx[lane] == kk) {
+                pc[lane] = (pc[lane] + 2) & 0xFFFF;
+            }
+        }
+    }
+
+    private void SNE_Vx_byte(int[] lanes, int count, int x, int kk) {
+        int[] Vx = regsVx[x];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            if (Vx[lane] != kk) {
+                pc[lane] = (pc[lane] + 2) & 0xFFFF;
+            }
+        }
+    }
+
+    private void SE_Vx_Vy(int[] lanes, int count, int x, int y) {
+        int[] Vx = regsVx[x];
+        int[] Vy = regsVx[y];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            if (Vx[lane] == Vy[lane]) {
+                pc[lane] = (pc[lane] + 2) & 0xFFFF;
+            }
+        }
+    }
+
+    private void LD_Vx_byte(int[] lanes, int count, int x, int kk) {
+        int[] Vx = regsVx[x];
+        for (int i = 0; i < count; i++) {
+            Vx[lanes[i]] = kk;
+        }
+    }
+
+    private void ADD_Vx_byte(int[] lanes, int count, int x, int kk) {
+        int[] Vx = regsVx[x];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            Vx[lane] = (Vx[lane] + kk) & 0xFF;
+        }
+    }
+
+    private void LD_Vx_Vy(int[] lanes, int count, int x, int y) {
+        int[] Vx = regsVx[x];
+        int[] Vy = regsVx[y];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            Vx[lane] = Vy[lane];
+        }
+    }
+
+    private void OR(int[] lanes, int count, int x, int y) {
+        int[] Vx = regsVx[x];
+        int[] Vy = regsVx[y];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            Vx[lane] = Vx[lane] | Vy[lane];
+        }
+    }
+
+    private void AND(int[] lanes, int count, int x, int y) {
+        int[] Vx = regsVx[x];
+        int[] Vy = regsVx[y];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            Vx[lane] = Vx[lane] & Vy[lane];
+        }
+    }
+
+    private void XOR(int[] lanes, int count, int x, int y) {
+        int[] Vx = regsVx[x];
+        int[] Vy = regsVx[y];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            Vx[lane] = Vx[lane] ^ Vy[lane];
+        }
+    }
+
+    private void ADD_Vx_Vy(int[] lanes, int count, int x, int y) {
+        int[] Vx = regsVx[x];
+        int[] Vy = regsVx[y];
+        int[] VF = regsVx[0xF];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            int result = Vx[lane] + Vy[lane];
+
+            VF[lane] = result > 255 ? 1 : 0;
+            Vx[lane] = result & 0xFF;
+        }
+    }
+
+    private void SUB(int[] lanes, int count, int x, int y) {
+        int[] Vx = regsVx[x];
+        int[] Vy = regsVx[y];
+        int[] VF = regsVx[0xF];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            int vx = Vx[lane];
+            int vy = Vy[lane];
+
+            VF[lane] = vy > vx ? 0 : 1;
+            Vx[lane] = (vx - vy) & 0xFF;
+        }
+    }
+
+    private void SHR(int[] lanes, int count, int x) {
+        int[] Vx = regsVx[x];
+        int[] VF = regsVx[0xF];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+
+            VF[lane] = Vx[lane] & 1;
+            Vx[lane] = Vx[lane] >>> 1;
+        }
+    }
+
+    private void SUBN(int[] lanes, int count, int x, int y) {
+        int[] Vx = regsVx[x];
+        int[] Vy = regsVx[y];
+        int[] VF = regsVx[0xF];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            int vx = Vx[lane];
+            int vy = Vy[lane];
+
+            VF[lane] = vx > vy ? 0 : 1;
+            Vx[lane] = (vy - vx) & 0xFF;
+        }
+    }
+
+    private void SHL(int[] lanes, int count, int x) {
+        int[] Vx = regsVx[x];
+        int[] VF = regsVx[0xF];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+
+            VF[lane] = (Vx[lane] >> 7) & 1;
+            Vx[lane] = (Vx[lane] << 1) & 0xFF;
+        }
+    }
+
+    private void SNE_Vx_Vy(int[] lanes, int count, int x, int y) {
+        int[] Vx = regsVx[x];
+        int[] Vy = regsVx[y];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            if (Vx[lane] != Vy[lane]) {
+                pc[lane] = (pc[lane] + 2) & 0xFFFF;
+            }
+        }
+    }
+
+    private void LD_I_addr(int[] lanes, int count, int nnn) {
+        for (int i = 0; i < count; i++) {
+            regI[lanes[i]] = nnn;
+        }
+    }
+
+    private void JP_V0_addr(int[] lanes, int count, int nnn) {
+        int[] V0 = regsVx[0];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            pc[lane] = (nnn + V0[lane] - 2) & 0xFFFF;
+        }
+    }
+
+    private void RND(int[] lanes, int count, int x, int kk) {
+        int[] Vx = regsVx[x];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            long state = Processor.nextRandomState(randomState[lane]);
+
+            randomState[lane] = state;
+            Vx[lane] = Processor.randomByte(state) & kk;
+        }
+    }
+
+    private void DRW(int[] lanes, int count, int x, int y, int n) {
+        int[] Vx = regsVx[x];
+        int[] Vy = regsVx[y];
+        int[] VF = regsVx[0xF];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            try {
+                boolean collision = displays[lane].drawSprite(Vx[lane], Vy[lane],
+                        getMemory(lane, regI[lane], regI[lane] + n), regI[lane], n, options.isClipEdges());
+                VF[lane] = collision ? 1 : 0;
+            } catch (RuntimeException e) {
+                crash(lane, e);
+            }
+        }
+    }
+
+    private void SKP(int[] lanes, int count, int x) {
+        int[] Vx = regsVx[x];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            try {
+                if (keyboards[lane].isKeyPressed(Vx[lane])) {
+                    pc[lane] = (pc[lane] + 2) & 0xFFFF;
+                }
+            } catch (RuntimeException e) {
+                crash(lane, e);
+            }
+        }
+    }
+
+    private void SKNP(int[] lanes, int count, int x) {
+        int[] Vx = regsVx[x];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            try {
+                if (!keyboards[lane].isKeyPressed(Vx[lane])) {
+                    pc[lane] = (pc[lane] + 2) & 0xFFFF;
+                }
+            } catch (RuntimeException e) {
+                crash(lane, e);
+            }
+        }
+    }
+
+    private void LD_Vx_DT(int[] lanes, int count, int x) {
+        int[] Vx = regsVx[x];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            Vx[lane] = regDT[lane];
+        }
+    }
+
+    private void LD_Vx_K(int[] lanes, int count, int x) {
+        int[] Vx = regsVx[x];
+        long keyPressGrace = Processor.getKeyPressGrace(options.getInstructionsPerSecond());
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            VirtualKeyboard keyboard = keyboards[lane];
+
+            if (!waitingForKey[lane]) {
+                keyboard.discardKeyPressBefore(instructions - keyPressGrace);
+                waitingForKey[lane] = true;
+            }
+
+            int key = keyboard.takeKeyPress();
+            if (key == -1) {
+                pc[lane] = (pc[lane] - 2) & 0xFFFF;
+                continue;
+            }
+
+            waitingForKey[lane] = false;
+            Vx[lane] = key;
+        }
+    }
+
+    private void LD_DT_Vx(int[] lanes, int count, int x) {
+        int[] Vx = regsVx[x];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            regDT[lane] = Vx[lane];
+        }
+    }
+
+    private void LD_ST_Vx(int[] lanes, int count, int x) {
+        int[] Vx = regsVx[x];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            regST[lane] = Vx[lane];
+        }
+    }
+
+    private void ADD_I_Vx(int[] lanes, int count, int x) {
+        int[] Vx = regsVx[x];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            regI[lane] = (regI[lane] + Vx[lane]) & 0xFFFF;
+        }
+    }
+
+    private void LD_F_Vx(int[] lanes, int count, int x) {
+        int[] Vx = regsVx[x];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            regI[lane] = (0x5 * Vx[lane]) & 0xFFFF;
+        }
+    }
+
+    private void LD_B_Vx(int[] lanes, int count, int x) {
+        int[] Vx = regsVx[x];
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            Memory memory = memories[lane];
+            int value = Vx[lane];
+            try {
+                memory.setLocation(regI[lane], (value / 100) % 10);
+                memory.setLocation(regI[lane] + 1, (value / 10) % 10);
+                memory.setLocation(regI[lane] + 2, (value % 10));
+                markWritten(lane, regI[lane], regI[lane] + 2);
+            } catch (RuntimeException e) {
+                crash(lane, e);
+            }
+        }
+    }
+
+    private void LD_I_Vx(int[] lanes, int count, int x) {
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            Memory memory = memories[lane];
+            try {
+                for (int r = 0; r <= x; r++) {
+                    memory.setLocation((regI[lane] + r) & 0xFFFF, regsVx[r][lane]);
+                }
+                markWritten(lane, regI[lane], regI[lane] + x);
+            } catch (RuntimeException e) {
+                crash(lane, e);
+            }
+        }
+    }
+
+    private void LD_Vx_I(int[] lanes, int count, int x) {
+        for (int i = 0; i < count; i++) {
+            int lane = lanes[i];
+            Memory memory = getMemory(lane, regI[lane], regI[lane] + x);
+            try {
+                for (int r = 0; r <= x; r++) {
+                    regsVx[r][lane] = memory.getLocation((regI[lane] + r) & 0xFFFF);
+                }
+            } catch (RuntimeException e) {
+                crash(lane, e);
+            }
+        }
+    }
+
+
+    // Where to read addresses first to last from for lane: the shared image if the lane hasn't written to any of them,
+    // since that's in cache for every lane, or else the lane's own memory. Out-of-range reads always go to the lane's
+    // memory, so they throw exactly where they would in a Processor.
+    private Memory getMemory(int lane, int first, int last) {
+        if (last >= Memory.SIZE) {
+            return memories[lane];
+        }
+
+        long blocks = (1L << (first >>> BLOCK_BITS)) | (1L << (last >>> BLOCK_BITS));
+        return (writtenBlocks[lane] & blocks) == 0 ? image : memories[lane];
+    }
+
+    // Addresses first to last have just been written without throwing, so they're all in memory
+    private void markWritten(int lane, int first, int last) {
+        writtenBlocks[lane] |= (1L << (first >>> BLOCK_BITS)) | (1L << (last >>> BLOCK_BITS));
+    }
+
+
+    public int getLanes() {
+        return lanes;
+    }
+
+    public int getLiveLanes() {
+        return liveCount;
+    }
+
+    public long getInstructions() {
+        return instructions;
+    }
+
+    // Instructions executed by every lane put together
+    public long getExecutedInstructions() {
+        return executed;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    // The exception that stopped lane, or null if it hasn't crashed
+    public RuntimeException getCrash(int lane) {
+        return crashes[lane];
+    }
+
+    public boolean isWaitingForKey(int lane) {
+        return waitingForKey[lane];
+    }
+
+    public VirtualDisplay getDisplay(int lane) {
+        return displays[lane];
+    }
+
+    // Keys for lane. Must only be used between calls to run(). When verifying, presses go to the lane's shadow too.
+    public KeyInput getKeyInput(int lane) {
+        return new KeyInput() {
+            @Override
+            public void pressKey(int key) {
+                keyboards[lane].pressKey(key);
+                if (shadows != null) {
+                    shadows[lane].getKeyboard().pressKey(key);
+                }
+            }
+
+            @Override
+            public void releaseKey(int key) {
+                keyboards[lane].releaseKey(key);
+                if (shadows != null) {
+                    shadows[lane].getKeyboard().releaseKey(key);
+                }
+            }
+        };
+    }
+
+
+    // lane as a SaveState, so it can be carried on with in an ordinary Machine (see Machine.loadState())
+    public byte[] saveState(int lane) {
+        if (crashes[lane] != null) {
+            throw new IllegalStateException("Lane " + lane + " has crashed");
+        }
+
+        byte[] state = new byte[SaveState.SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(state);
+
+        SaveState.writeHeader(buffer);
+
+        // Laid out as in Processor.writeState()
+        for (int x = 0; x < 16; x++) {
+            buffer.put((byte) regsVx[x][lane]);
+        }
+        buffer.putShort((short) regI[lane]);
+
+        buffer.put((byte) regDT[lane]);
+        buffer.put((byte) regST[lane]);
+
+        buffer.putShort((short) pc[lane]);
+        buffer.put((byte) sp[lane]);
+
+        for (int i = 0; i < 16; i++) {
+            buffer.putShort((short) stack[i][lane]);
+        }
+
+        buffer.putLong(randomState[lane]);
+        buffer.put((byte) (waitingForKey[lane] ? 1 : 0));
+
+        buffer.putLong(instructions);
+        buffer.putLong(frames);
+        buffer.putInt(timerBudget);
+        buffer.putInt(0); // Block budget, only used when running in real time
+
+        memories[lane].writeState(buffer);
+        displays[lane].writeState(buffer);
+        keyboards[lane].writeState(buffer);
+
+        return state;
+    }
+
+
+    // Brings every shadow up to the same instruction, and checks that it crashed where its lane did, or otherwise ended
+    // up in exactly the same state.
+    private void verify() {
+        Machine scratch = null;
+
+        for (int lane = 0; lane < lanes; lane++) {
+            Machine shadow = shadows[lane];
+            Processor processor = shadow.getProcessor();
+
+            // Crashed shadows have nowhere to go, and re-running them would re-run the instruction that crashed
+            if (shadowCrashes[lane] == null) {
+                try {
+                    long target = crashes[lane] != null ? crashInstructions[lane] + 1 : instructions;
+                    shadow.run(Long.MAX_VALUE, target);
+                } catch (RuntimeException e) {
+                    shadowCrashes[lane] = e;
+                }
+            }
+            RuntimeException shadowCrash = shadowCrashes[lane];
+
+            String difference = null;
+            if ((crashes[lane] != null) != (shadowCrash != null)) {
+                difference = crashes[lane] != null ? "Lane crashed with " + crashes[lane] : "Machine crashed with " +
+                        shadowCrash;
+            } else if (crashes[lane] != null) {
+                if (crashInstructions[lane] != processor.getInstructions()) {
+                    difference = "Crashed at instruction " + crashInstructions[lane] + " vs " +
+                            processor.getInstructions();
+                }
+            } else if (!Arrays.equals(saveState(lane), shadow.saveState())) {
+                if (scratch == null) {
+                    scratch = new Machine(options, Screen.NONE, Buzzer.NONE);
+                }
+                scratch.loadState(saveState(lane));
+
+                difference = processor.findStateDifference(scratch.getProcessor());
+                if (difference == null) {
+                    difference = processor.getInstructions() != instructions ? "Instruction counts differ" :
+                            !shadow.getMemory().contentEquals(scratch.getMemory()) ? "Memory differs" :
+                            !shadow.getDisplay().contentEquals(scratch.getDisplay()) ? "Display differs" :
+                            "Keyboard differs";
+                }
+            }
+
+            if (difference != null) {
+                throw new IllegalStateException(String.format("Lane %d doesn't match the interpreter after %d " +
+                        "instructions (interpreted vs lockstep). %s", lane, instructions, difference));
+            }
+        }
+    }
+
+
+    public String getStats() {
+        return String.format("Lockstep: %d of %d lanes live, %d steps, %.2f groups per step, %.1f%% of steps fetched " +
+                        "once for every lane", liveCount, lanes, steps, steps > 0 ? (double) groups / steps : 0.0,
+                steps > 0 ? 100.0 * uniformSteps / steps : 0.0);
+    }
+
+}
@@ -2,6 +2,9 @@ package me.sudsey.chip8.interpret;
 
 import me.sudsey.chip8.commons.Options;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 public class Machine {
 
     private VirtualDisplay display;
@@ -9,25 +12,85 @@ public class Machine {
     private Memory memory;
 
     private Processor processor;
+    private RewindBuffer rewindBuffer; // null unless enableRewind() was called
+    private Profiler profiler;         // null unless enableProfiling() was called
 
-    public Machine(Options options, Terminal terminal, Speaker speaker) {
-        this.display = new VirtualDisplay(terminal);
-        this.keyboard = new VirtualKeyboard(terminal);
+    public Machine(Options options, Screen screen, Buzzer buzzer) {
+        this.display = new VirtualDisplay(screen);
+        this.keyboard = new VirtualKeyboard();
         this.memory = new Memory();
+        this.memory.setCollectStats(options.isDecodeStats());
+
+        this.processor = new Processor(options, this.display, this.keyboard, buzzer, this.memory);
+
+        if (options.isJit()) {
+            this.processor.setRecompiler(new Recompiler(options, this.memory, this.display, this.keyboard));
+        }
+    }
+
+
+    // Starts recording history every frame, keeping up to capacity bytes of it
+    public RewindBuffer enableRewind(long capacity) {
+        rewindBuffer = new RewindBuffer(capacity, processor, memory, display, keyboard);
+        processor.setRewindBuffer(rewindBuffer);
+
+        return rewindBuffer;
+    }
+
+
+    // Records key presses from the returned KeyInput to path, see InputRecorder
+    public InputRecorder enableRecording(String path, Options options) throws IOException {
+        return new InputRecorder(path, options, processor, keyboard);
+    }
+
+    // Presses keys as recorded in replay, instead of taking them from anywhere else
+    public void enableReplay(InputReplay replay) {
+        processor.setReplay(replay);
+    }
 
-        this.processor = new Processor(options, this.display, this.keyboard, speaker, this.memory);
+
+    // Counts every instruction from now on, see Profiler
+    public Profiler enableProfiling() {
+        profiler = new Profiler(memory);
+        processor.setProfiler(profiler);
+
+        return profiler;
     }
 
+    // Counts what the processor does for watching it live, see ProcessorMetrics
+    public ProcessorMetrics enableMetrics() {
+        ProcessorMetrics metrics = new ProcessorMetrics(processor);
+        processor.setMetrics(metrics);
 
-    public void init() {
-        keyboard.init();
+        return metrics;
     }
 
 
-    public void start(int[] rom) {
+    public void load(byte[] rom) {
         display.clear();
         memory.loadROM(rom);
 
+        processor.reset();
+    }
+
+    // Maps in image's pages rather than copying them, and seeds RND with seed instead of --seed. See RomImage.
+    public void load(RomImage image, long seed) {
+        display.clear();
+        memory.loadImage(image);
+
+        processor.reset(seed);
+    }
+
+    // Returns the number of bytes loaded, see Memory.loadROM(Path)
+    public int load(Path romPath) throws IOException {
+        display.clear();
+        int length = memory.loadROM(romPath);
+
+        processor.reset();
+        return length;
+    }
+
+    public void start() {
         processor.start();
     }
 
@@ -35,4 +98,64 @@ public class Machine {
         processor.stop();
     }
 
+    // Runs on the calling thread, as fast as possible, until the processor has reached either frames or instructions.
+    // Timers must follow the instruction count (i.e. no --wall-clock-timers).
+    public void run(long frames, long instructions) {
+        while (processor.getFrames() < frames && processor.getInstructions() < instructions) {
+            long remaining = Math.min(processor.getInstructionsUntilFrame(frames),
+                    instructions - processor.getInstructions());
+
+            processor.run((int) Math.min(remaining, Integer.MAX_VALUE));
+        }
+    }
+
+
+    // Runs task on the processor thread between blocks
+    public void post(Runnable task) {
+        processor.post(task);
+    }
+
+    // See SaveState. Both must be called on the thread running the processor (see Processor.post()), or while it's
+    // stopped.
+    public byte[] saveState() {
+        return SaveState.capture(processor, memory, display, keyboard);
+    }
+
+    public void loadState(byte[] state) {
+        SaveState.restore(state, processor, memory, display, keyboard);
+    }
+
+
+    // Rough heap size of everything this machine holds on its own, i.e. not counting pages shared with other machines
+    // or the rewind buffer's history.
+    public long getFootprint() {
+        return Footprint.object(6 * Footprint.REFERENCE) + display.getFootprint() + keyboard.getFootprint()
+                + memory.getFootprint() + processor.getFootprint();
+    }
+
+
+    public VirtualDisplay getDisplay() {
+        return display;
+    }
+
+    public Memory getMemory() {
+        return memory;
+    }
+
+    public VirtualKeyboard getKeyboard() {
+        return keyboard;
+    }
+
+    public Processor getProcessor() {
+        return processor;
+    }
+
+    public RewindBuffer getRewindBuffer() {
+        return rewindBuffer;
+    }
+
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
 }
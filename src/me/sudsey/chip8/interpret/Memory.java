@@ -1,58 +1,265 @@
 package me.sudsey.chip8.interpret;
 
+import me.sudsey.chip8.commons.Instruction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.function.IntConsumer;
 
 public class Memory {
 
-    private int[] memory;
+    public static final int SIZE = 4096;
+    public static final int ROM_START = 0x200;
+    public static final int MAX_ROM_SIZE = SIZE - ROM_START;
+
+
+    // SIZE bytes, split into MemoryPages. Most pages start out shared with every other Memory that loaded the same
+    // RomImage, and are swapped for private copies as they're written to. Bytes are signed in Java, so everything
+    // outside this class goes through the accessors below, which mask them back to 0-255.
+    private MemoryPage[] pages;
+
+    private boolean collectStats;
+    private long decodeHits;
+    private long decodeMisses;
+    private long decodeInvalidations;
+
+    private IntConsumer writeListener; // Told the address of every setLocation(), null if nobody's listening
 
     public Memory() {
-        this.memory = new int[4096];
+        this.pages = new MemoryPage[SIZE / MemoryPage.SIZE];
 
-        loadDigitSprites();
+        loadImage(RomImage.EMPTY);
     }
 
 
-    private void loadDigitSprites() {
-        int[] digitSprites = new int[] {
-                0xF0, 0x90, 0x90, 0x90, 0xF0, // 0
-                0x20, 0x60, 0x20, 0x20, 0x70, // 1
-                0xF0, 0x10, 0xF0, 0x80, 0xF0, // 2
-                0xF0, 0x10, 0xF0, 0x10, 0xF0, // 3
-                0x90, 0x90, 0xF0, 0x10, 0x10, // 4
-                0xF0, 0x80, 0xF0, 0x10, 0xF0, // 5
-                0xF0, 0x80, 0xF0, 0x90, 0xF0, // 6
-                0xF0, 0x10, 0x20, 0x40, 0x40, // 7
-                0xF0, 0x90, 0xF0, 0x90, 0xF0, // 8
-                0xF0, 0x90, 0xF0, 0x10, 0xF0, // 9
-                0xF0, 0x90, 0xF0, 0x90, 0x90, // A
-                0xE0, 0x90, 0xE0, 0x90, 0xE0, // B
-                0xF0, 0x80, 0x80, 0x80, 0xF0, // C
-                0xE0, 0x90, 0x90, 0x90, 0xE0, // D
-                0xF0, 0x80, 0xF0, 0x80, 0xF0, // E
-                0xF0, 0x80, 0xF0, 0x80, 0x80, // F
-        };
+    // Maps in image's pages, so nothing is copied until it's written to
+    public void loadImage(RomImage image) {
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = image.getPage(i);
+        }
+    }
 
-        System.arraycopy(digitSprites, 0, memory, 0, digitSprites.length);
+    // Anything past MAX_ROM_SIZE bytes is left out
+    public void loadROM(byte[] rom) {
+        loadImage(new RomImage(rom));
     }
 
+    // Reads the file straight into memory from 0x200, without an array in between. Returns the number of bytes
+    // loaded, at most MAX_ROM_SIZE.
+    public int loadROM(Path path) throws IOException {
+        loadImage(RomImage.EMPTY);
+
+        int length = 0;
+        try (FileChannel channel = FileChannel.open(path)) {
+            for (int i = ROM_START >>> MemoryPage.BITS; i < pages.length; i++) {
+                MemoryPage page = MemoryPage.createPrivate();
 
-    public void loadROM(int[] rom) {
-        Arrays.fill(memory, 0x200, memory.length, 0);
-        System.arraycopy(rom, 0, memory, 0x200, Math.min(rom.length, 0xFFF - 0x200));
+                ByteBuffer region = ByteBuffer.wrap(page.bytes);
+                while (region.hasRemaining() && channel.read(region) != -1) {
+                    // Keep reading until the file or the page runs out
+                }
+
+                if (region.position() == 0) {
+                    break;
+                }
+                pages[i] = page;
+                length += region.position();
+            }
+        }
+
+        return length;
     }
 
 
     public int getLocation(int location) {
-        return memory[location];
+        return pages[location >>> MemoryPage.BITS].bytes[location & MemoryPage.MASK] & 0xFF;
+    }
+
+    // As getLocation(), except anything past the end of memory reads as 0, e.g. the rest of a sprite drawn with I near
+    // 0xFFF (sprites used to be copied out with Arrays.copyOfRange, which pads with zeros)
+    public int getLocationOrZero(int location) {
+        return location < SIZE ? getLocation(location) : 0;
+    }
+
+    // The big-endian 16-bit word at location and location + 1, i.e. an instruction
+    public int getWord(int location) {
+        return (getLocation(location) << 8) | getLocation(location + 1);
     }
 
     public void setLocation(int location, int value) {
-        memory[location] = value;
+        int index = location >>> MemoryPage.BITS;
+        int offset = location & MemoryPage.MASK;
+
+        MemoryPage page = pages[index];
+        if (page.shared) {
+            page = page.copy();
+            pages[index] = page;
+        }
+
+        page.bytes[offset] = (byte) value;
+
+        // The instruction at the end of the previous page is never cached, so there's nothing to invalidate there
+        if (page.decoded != null) {
+            invalidateDecoded(page.decoded, offset);
+            if (offset > 0) {
+                invalidateDecoded(page.decoded, offset - 1);
+            }
+        }
+
+        if (writeListener != null) {
+            writeListener.accept(location);
+        }
+    }
+
+
+    // Returns the instruction made up of the bytes at location and location + 1 (null if they aren't a valid
+    // instruction), decoding them only if they've changed since the last fetch. Words that aren't valid instructions
+    // aren't cached, but they're rarely executed, and decoding is only a table lookup anyway.
+    public Instruction getInstruction(int location) {
+        MemoryPage page = pages[location >>> MemoryPage.BITS];
+        int offset = location & MemoryPage.MASK;
+
+        Instruction[] decoded = page.decoded;
+        if (decoded != null) {
+            Instruction instruction = decoded[offset];
+            if (instruction != null) {
+                if (collectStats) {
+                    decodeHits++;
+                }
+                return instruction;
+            }
+        }
+
+        if (collectStats) {
+            decodeMisses++;
+        }
+
+        Instruction instruction = Instruction.parseInstructionBytes(getWord(location));
+
+        // Shared pages come fully decoded, so only private ones get here and can be written to
+        if (offset != MemoryPage.MASK && !page.shared) {
+            if (decoded == null) {
+                decoded = new Instruction[MemoryPage.SIZE];
+                page.decoded = decoded;
+            }
+            decoded[offset] = instruction;
+        }
+
+        return instruction;
+    }
+
+
+    public void setCollectStats(boolean collectStats) {
+        this.collectStats = collectStats;
     }
 
-    public int[] getRange(int start, int end) {
-        return Arrays.copyOfRange(memory, start, end);
+    public String getDecodeStats() {
+        long fetches = decodeHits + decodeMisses;
+
+        return String.format("Decode cache: %d fetches, %d hits (%.2f%%), %d invalidations", fetches, decodeHits,
+                fetches > 0 ? 100.0 * decodeHits / fetches : 0.0, decodeInvalidations);
+    }
+
+
+    public void setWriteListener(IntConsumer writeListener) {
+        this.writeListener = writeListener;
+    }
+
+    // Shares other's shared pages, and copies its private ones into pages of our own
+    public void copyFrom(Memory other) {
+        for (int i = 0; i < pages.length; i++) {
+            MemoryPage theirs = other.pages[i];
+
+            if (theirs.shared) {
+                pages[i] = theirs;
+                continue;
+            }
+
+            MemoryPage ours = pages[i];
+            if (ours.shared) {
+                ours = MemoryPage.createPrivate();
+                pages[i] = ours;
+            }
+            System.arraycopy(theirs.bytes, 0, ours.bytes, 0, MemoryPage.SIZE);
+            ours.decoded = null;
+        }
+    }
+
+    public boolean contentEquals(Memory other) {
+        for (int i = 0; i < pages.length; i++) {
+            if (pages[i] != other.pages[i] && !Arrays.equals(pages[i].bytes, other.pages[i].bytes)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    void writeState(ByteBuffer buffer) {
+        for (MemoryPage page : pages) {
+            buffer.put(page.bytes);
+        }
+    }
+
+    // Pages that haven't changed since the state was saved are left alone, so restoring (e.g. while rewinding) doesn't
+    // unshare them.
+    void readState(ByteBuffer buffer) {
+        for (int i = 0; i < pages.length; i++) {
+            MemoryPage page = pages[i];
+
+            ByteBuffer saved = buffer.slice();
+            saved.limit(MemoryPage.SIZE);
+            if (saved.equals(ByteBuffer.wrap(page.bytes))) {
+                buffer.position(buffer.position() + MemoryPage.SIZE);
+                continue;
+            }
+
+            if (page.shared) {
+                page = MemoryPage.createPrivate();
+                pages[i] = page;
+            }
+            buffer.get(page.bytes);
+            page.decoded = null;
+        }
+    }
+
+
+    // Rough heap size of this Memory and its private pages. Shared pages are counted by their RomImage instead.
+    public long getFootprint() {
+        long footprint = Footprint.object(Footprint.REFERENCE * 2 + 1 + 3 * 8) +
+                Footprint.array(pages.length, Footprint.REFERENCE);
+        for (MemoryPage page : pages) {
+            if (!page.shared) {
+                footprint += page.getFootprint();
+            }
+        }
+
+        return footprint;
+    }
+
+    public int getPrivatePages() {
+        int count = 0;
+        for (MemoryPage page : pages) {
+            if (!page.shared) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+
+    private void invalidateDecoded(Instruction[] decoded, int offset) {
+        if (decoded[offset] != null) {
+            decoded[offset] = null;
+
+            if (collectStats) {
+                decodeInvalidations++;
+            }
+        }
     }
 
 }
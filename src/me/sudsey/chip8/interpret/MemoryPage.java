@@ -0,0 +1,75 @@
+package me.sudsey.chip8.interpret;
+
+import me.sudsey.chip8.commons.Instruction;
+
+// SIZE bytes of memory, along with the instructions decoded from them. Memory is split into these so that pages which
+// are the same for lots of machines (a ROM, the font, all the zeroes after a short ROM) can be shared between them, see
+// RomImage.
+//
+// A shared page is never written to. All of its instructions are decoded when it's made, so any number of threads can
+// fetch from it at once. A private page belongs to a single Memory, which decodes it lazily, and makes one by copying a
+// shared page the first time it writes to it.
+//
+// Fields are package-private and accessed directly, as Memory's accessors are on the hot path.
+
+class MemoryPage {
+
+    static final int BITS = 8;
+    static final int SIZE = 1 << BITS;
+    static final int MASK = SIZE - 1;
+
+    final byte[] bytes;
+    final boolean shared;
+
+    // The instruction starting at each offset, null if it hasn't been decoded (or isn't a valid instruction). The last
+    // offset is never cached, as its second byte is on the next page. Private pages only allocate this when first
+    // fetched from.
+    Instruction[] decoded;
+
+    private MemoryPage(byte[] bytes, boolean shared) {
+        this.bytes = bytes;
+        this.shared = shared;
+    }
+
+
+    static MemoryPage createShared(byte[] bytes) {
+        MemoryPage page = new MemoryPage(bytes, true);
+
+        page.decoded = new Instruction[SIZE];
+        for (int offset = 0; offset < SIZE - 1; offset++) {
+            page.decoded[offset] = Instruction.parseInstructionBytes(((bytes[offset] & 0xFF) << 8) |
+                    (bytes[offset + 1] & 0xFF));
+        }
+
+        return page;
+    }
+
+    static MemoryPage createPrivate() {
+        return new MemoryPage(new byte[SIZE], false);
+    }
+
+    MemoryPage copy() {
+        MemoryPage page = createPrivate();
+        System.arraycopy(bytes, 0, page.bytes, 0, SIZE);
+
+        return page;
+    }
+
+
+    boolean isZero() {
+        for (byte b : bytes) {
+            if (b != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Rough heap size of the page, not counting the Instructions, which come from a table shared by everything
+    long getFootprint() {
+        return Footprint.object(2 * Footprint.REFERENCE + 1) + Footprint.array(SIZE, 1) +
+                (decoded != null ? Footprint.array(SIZE, Footprint.REFERENCE) : 0);
+    }
+
+}
@@ -0,0 +1,52 @@
+package me.sudsey.chip8.interpret;
+
+// Deadlines for something that should happen a fixed number of times per second, against System.nanoTime(). The n-th
+// run is due n / perSecond seconds after the first, worked out from n each time rather than by adding up periods, so
+// lateness in one run (or a period that isn't a whole number of nanoseconds) never pushes the rest back.
+//
+// After a stall, the runs that were missed are made up, but no faster than CATCH_UP_SPEED times the usual rate, so a
+// game speeds up for a moment instead of jumping ahead in one burst. Anything more than MAX_LAG behind is dropped: the
+// schedule moves forward, and the game just loses that time.
+
+class Pacer {
+
+    private static final int CATCH_UP_SPEED = 2;
+    private static final long MAX_LAG = 250000000; // Nanoseconds
+
+
+    private long perSecond;
+
+    private long epoch;     // When run 0 was due, moved forward when time is dropped
+    private long runs;      // Runs started so far
+    private long lastStart;
+
+    Pacer(long perSecond, long start) {
+        this.perSecond = perSecond;
+
+        this.epoch = start;
+        this.lastStart = start - 1000000000L / perSecond;
+    }
+
+
+    // The earliest the next run should start. Usually its deadline, but later than that while catching up.
+    long getNextStart() {
+        return Math.max(getDue(), lastStart + 1000000000L / (perSecond * CATCH_UP_SPEED));
+    }
+
+    // Counts a run as started at now, and returns how late it was against its deadline
+    long start(long now) {
+        long lateness = now - getDue();
+        if (lateness > MAX_LAG) {
+            epoch += lateness - MAX_LAG;
+        }
+
+        runs++;
+        lastStart = now;
+        return lateness;
+    }
+
+    private long getDue() {
+        return epoch + runs * 1000000000L / perSecond;
+    }
+
+}
@@ -3,19 +3,28 @@ package me.sudsey.chip8.interpret;
 import me.sudsey.chip8.commons.Instruction;
 import me.sudsey.chip8.commons.Options;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
 
 public class Processor {
 
-    private ScheduledExecutorService scheduler;
-    private Future clock;
-    private Future timer;
+    private static final int BLOCKS_PER_SECOND = 50; // Blocks run every 20ms when capped
+    private static final int UNCAPPED_BLOCK_SIZE = 1000;
+    private static final int TIMER_HZ = 60;
+
+
+    private Thread thread;              // Only made by start(), so machines run some other way have no thread
+    private volatile boolean running;   // Until stop()
+    private Queue<Runnable> posted;     // Run between blocks on the processor thread, see post()
 
     private Options options;
 
     private VirtualDisplay display;
     private VirtualKeyboard keyboard;
-    private Speaker speaker;
+    private Buzzer buzzer;
     private Memory memory;
 
     private int[] regsVx;   // 16 8-bit general purpose registers
@@ -24,25 +33,56 @@ public class Processor {
     private int regDT;      // 8-bit delay timer
     private int regST;      // 8-bit sound timer
 
-    private int pc;         // 16-bit program counter
+    int pc;                 // 16-bit program counter. Package-private so recompiled blocks can set it directly
     private int sp;         // 8-bit stack pointer
 
     private int[] stack;    // 16 16-bit values containing memory addresses
 
-    public Processor(Options options, VirtualDisplay display, VirtualKeyboard keyboard, Speaker speaker,
+    private long randomState; // xorshift state for RND, kept here so random numbers don't allocate
+
+    private boolean waitingForKey; // Halted on LD_Vx_K until a key is pressed
+
+    private long instructions;  // Instructions executed since reset()
+    private long frames;        // Timer ticks since reset(), i.e. 60Hz frames of emulated time
+    private int timerBudget;    // Progress towards the next timer tick, in units of 1/TIMER_HZ instructions
+    private int blockBudget;    // Instructions owed to the next block, in units of 1/BLOCKS_PER_SECOND
+
+    private boolean cycleTimers; // Timers follow the instruction count, as opposed to the wall clock
+
+    private Recompiler recompiler; // null unless recompiling blocks, see setRecompiler()
+    private RewindBuffer rewindBuffer; // null unless recording history, see setRewindBuffer()
+    private InputReplay replay;        // null unless replaying input, see setReplay()
+    private Profiler profiler;         // null unless profiling, see setProfiler()
+    private ProcessorMetrics metrics;  // null unless publishing metrics, see setMetrics()
+
+    private long startTime;
+    private volatile long instructionsExecuted; // Copy of instructions, published once per block for stop()
+
+    public Processor(Options options, VirtualDisplay display, VirtualKeyboard keyboard, Buzzer buzzer,
                      Memory memory) {
-        this.scheduler = Executors.newScheduledThreadPool(0);
+        this.posted = new ConcurrentLinkedQueue<>();
 
         this.options = options;
 
         this.display = display;
         this.keyboard = keyboard;
-        this.speaker = speaker;
+        this.buzzer = buzzer;
         this.memory = memory;
+
+        this.cycleTimers = options.isUncapped() || !options.isWallClockTimers();
+
+        keyboard.setClock(this::getKeyPressStamp);
+
+        reset();
     }
 
 
-    public void start() {
+    public void reset() {
+        reset(options.getSeed());
+    }
+
+    // Resets with RND seeded by seed instead of --seed, e.g. to give each machine in a pool different randomness
+    public void reset(long seed) {
         this.regsVx = new int[16];
         this.regI = 0;
 
@@ -54,62 +94,577 @@ public class Processor {
 
         this.stack = new int[16];
 
-        // Ideally we would use scheduleAtFixedRate here, to make instruction blocks regular. However, that method
-        // queues iterations when one is blocked, and so executes blocks in bursts after LD_Vx_K calls. With
-        // scheduleWithFixedDelay, iterations happen e.g. 20ms *after* the previous finishes, so we only run the risk of
-        // slowdown if blocks take too long (at the time of writing, they take ~0.01ms to execute, so this is a
-        // non-issue).
+        this.randomState = seedRandom(seed);
+
+        this.waitingForKey = false;
+
+        this.instructions = 0;
+        this.frames = 0;
+        this.timerBudget = 0;
+        this.blockBudget = 0;
 
-        clock = scheduler.scheduleWithFixedDelay(() -> {
+        this.instructionsExecuted = 0;
+
+        if (recompiler != null) {
+            recompiler.clear();
+        }
+        if (rewindBuffer != null) {
+            rewindBuffer.clear();
+        }
+        if (replay != null) {
+            replay.restart();
+        }
+    }
+
+    // Runs the processor on a thread of its own until stop(). Everything happens on that one thread: instruction
+    // blocks, wall-clock timer ticks, capturing history and anything post()ed, so none of it ever races.
+    public void start() {
+        startTime = System.nanoTime();
+        running = true;
+
+        thread = new Thread(() -> {
             try {
-                processInstructionBlock();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+                if (options.isUncapped()) {
+                    processUncapped();
+                } else {
+                    processPaced();
+                }
             } catch (Throwable t) {
                 t.printStackTrace();
                 throw t;
             }
-        }, 0, 20, TimeUnit.MILLISECONDS);
+        }, "Processor");
 
-        timer = scheduler.scheduleWithFixedDelay(() -> {
-            try {
-                if (regDT > 0) {
-                    regDT--;
-                }
-                if (regST > 0) {
-                    regST--;
+        // So the JVM can still exit if the main thread dies without calling stop()
+        thread.setDaemon(true);
+        keyboard.setWaiter(thread);
+        thread.start();
+    }
+
+    // Returns once the processor thread has finished whatever it was doing and ended
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        keyboard.setWaiter(null);
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        reportSpeed(System.nanoTime() - startTime);
+    }
+
+
+    // Queues task to run on the processor thread between blocks, where it can safely touch the machine's state. Wakes
+    // the thread if it's parked while halted on LD_Vx_K, since the task may well be a key press.
+    public void post(Runnable task) {
+        posted.add(task);
+        LockSupport.unpark(thread);
+    }
+
+    private void runPosted() {
+        Runnable task;
+        while ((task = posted.poll()) != null) {
+            task.run();
+        }
+    }
+
+
+    // Executes count instructions. When recording history for rewinding, this stops at every frame so that each one is
+    // captured on an instruction boundary, and when replaying input, at every event so it's applied at exactly the
+    // instruction it was recorded at.
+    public void run(int count) {
+        boolean stopAtFrames = rewindBuffer != null && cycleTimers;
+
+        if (!stopAtFrames && replay == null) {
+            execute(count);
+            return;
+        }
+
+        while (count > 0) {
+            long chunk = count;
+            if (replay != null) {
+                replay.applyDue(instructions, keyboard);
+                chunk = Math.min(chunk, replay.getInstructionsUntilNext(instructions));
+            }
+            if (stopAtFrames) {
+                chunk = Math.min(chunk, getInstructionsUntilFrame(frames + 1));
+            }
+
+            long frame = frames;
+
+            execute((int) chunk);
+            count -= chunk;
+
+            if (stopAtFrames && frames != frame) {
+                rewindBuffer.capture();
+            }
+        }
+    }
+
+    // Executes count instructions, through recompiled blocks where possible. A block only runs if it fits in what's
+    // left of the count, so exactly count instructions are executed.
+    private void execute(int count) {
+        // Halted, and nothing will change that before the count is up
+        if (waitingForKey && !keyboard.hasKeyPress()) {
+            idle(count);
+            return;
+        }
+
+        // Checked here rather than in cycle(), so profiling costs nothing per instruction when it's off
+        if (profiler != null) {
+            for (int i = 0; i < count; i++) {
+                profiledCycle();
+            }
+            return;
+        }
+
+        if (recompiler == null) {
+            for (int i = 0; i < count; i++) {
+                cycle();
+            }
+            return;
+        }
+
+        while (count > 0) {
+            count -= recompiler.execute(this, count);
+        }
+    }
+
+    // Executes a single instruction, then counts the timers down if a 60Hz tick of emulated time has passed. Timers
+    // follow the instruction count rather than the wall clock, so the same ROM, seed and input always end up in the
+    // same state.
+    public void cycle() {
+        Instruction instruction = memory.getInstruction(pc);
+
+        if (instruction != null) {
+            processInstruction(instruction);
+        }
+
+        pc = (pc + 2) & 0xFFFF;
+        retire();
+    }
+
+    // As cycle(), telling the profiler about the instruction before and after it's executed
+    private void profiledCycle() {
+        int address = pc;
+        boolean wasWaitingForKey = waitingForKey;
+        Instruction instruction = memory.getInstruction(pc);
+
+        profiler.beforeInstruction(this, address, instruction);
+        if (instruction != null) {
+            processInstruction(instruction);
+        }
+
+        pc = (pc + 2) & 0xFFFF;
+        profiler.afterInstruction(this, address, instruction, wasWaitingForKey);
+        retire();
+    }
+
+    // Has the same effect as re-executing LD_Vx_K count times with no key press to take (each would put the PC back
+    // and retire), without going through them one by one.
+    private void idle(int count) {
+        instructions += count;
+
+        if (cycleTimers) {
+            int ips = options.getInstructionsPerSecond();
+            long budget = timerBudget + (long) count * TIMER_HZ;
+            for (long ticks = budget / ips; ticks > 0; ticks--) {
+                tickTimers();
+            }
+            timerBudget = (int) (budget % ips);
+        }
+
+        if (profiler != null) {
+            profiler.countHalted(count);
+        }
+    }
+
+    // Counts one instruction as executed, ticking the timers if any are due: below 60 instructions per second, that's
+    // more than one tick for some instructions. Recompiled blocks call this after each instruction they contain, so
+    // timers line up exactly with the interpreter.
+    void retire() {
+        instructions++;
+
+        if (cycleTimers) {
+            timerBudget += TIMER_HZ;
+            while (timerBudget >= options.getInstructionsPerSecond()) {
+                timerBudget -= options.getInstructionsPerSecond();
+                tickTimers();
+            }
+        }
+    }
+
+    // Counts DT and ST down by one 60Hz tick.
+    public void tickTimers() {
+        if (regDT > 0) {
+            regDT--;
+        }
+        if (regST > 0) {
+            regST--;
+
+            if (regST == 0) {
+                buzzer.stopPlaying();
+            }
+        }
+
+        frames++;
+    }
+
+
+    public int getRegister(int x) {
+        return regsVx[x];
+    }
+
+    public int getI() {
+        return regI;
+    }
+
+    public int getDT() {
+        return regDT;
+    }
+
+    public int getST() {
+        return regST;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    public int getSp() {
+        return sp;
+    }
+
+    public boolean isWaitingForKey() {
+        return waitingForKey;
+    }
+
+    public long getInstructions() {
+        return instructions;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    // As getInstructions(), but safe to call from any thread while the processor is running. Only updated after each
+    // block.
+    public long getInstructionsExecuted() {
+        return instructionsExecuted;
+    }
+
+    // The instruction count a key press made now takes effect at. Exact for presses on the thread running the processor
+    // (posted by InputRecorder, applied by InputReplay, or between calls to run()), so recordings replay the same; from
+    // any other thread, as of the last block.
+    private long getKeyPressStamp() {
+        return thread == null || thread == Thread.currentThread() ? instructions : instructionsExecuted;
+    }
+
+    // How long before a wait on LD_Vx_K starts a key press can take effect and still end it: one block's worth of
+    // instructions. Keys are only pressed between blocks, so a press answering a prompt drawn near the end of one block
+    // takes effect at the start of the next, which is before the wait if that comes a few instructions in.
+    static long getKeyPressGrace(int instructionsPerSecond) {
+        return (instructionsPerSecond + BLOCKS_PER_SECOND - 1) / BLOCKS_PER_SECOND;
+    }
+
+    // The number of instructions left until getFrames() reaches frame. Only meaningful when timers follow the
+    // instruction count.
+    public long getInstructionsUntilFrame(long frame) {
+        if (frame <= frames) {
+            return 0;
+        }
+        // Effectively never, and would overflow below
+        if (frame - frames > Long.MAX_VALUE / options.getInstructionsPerSecond()) {
+            return Long.MAX_VALUE;
+        }
 
-                    if (regST == 0) {
-                        speaker.stopPlaying();
-                    }
+        // Timers only tick as an instruction retires, so a frame still to come is always at least one away
+        long needed = (frame - frames) * options.getInstructionsPerSecond() - timerBudget;
+        return Math.max((needed + TIMER_HZ - 1) / TIMER_HZ, 1);
+    }
+
+
+    public void setRecompiler(Recompiler recompiler) {
+        this.recompiler = recompiler;
+    }
+
+    public void setRewindBuffer(RewindBuffer rewindBuffer) {
+        this.rewindBuffer = rewindBuffer;
+    }
+
+    public void setReplay(InputReplay replay) {
+        this.replay = replay;
+    }
+
+    // Profiled instructions all go through the interpreter, bypassing any recompiler
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public void setMetrics(ProcessorMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+
+    // Copies every register, counter and the PRNG state from other. Used to check recompiled blocks against the
+    // interpreter.
+    void copyStateFrom(Processor other) {
+        System.arraycopy(other.regsVx, 0, regsVx, 0, 16);
+        regI = other.regI;
+
+        regDT = other.regDT;
+        regST = other.regST;
+
+        pc = other.pc;
+        sp = other.sp;
+
+        System.arraycopy(other.stack, 0, stack, 0, 16);
+
+        randomState = other.randomState;
+        waitingForKey = other.waitingForKey;
+
+        instructions = other.instructions;
+        frames = other.frames;
+        timerBudget = other.timerBudget;
+    }
+
+    // Save states, see SaveState for the layout. Compiled blocks may have been compiled from different code, so they're
+    // thrown away on restore.
+    void writeState(ByteBuffer buffer) {
+        for (int x = 0; x < 16; x++) {
+            buffer.put((byte) regsVx[x]);
+        }
+        buffer.putShort((short) regI);
+
+        buffer.put((byte) regDT);
+        buffer.put((byte) regST);
+
+        buffer.putShort((short) pc);
+        buffer.put((byte) sp);
+
+        for (int i = 0; i < 16; i++) {
+            buffer.putShort((short) stack[i]);
+        }
+
+        buffer.putLong(randomState);
+        buffer.put((byte) (waitingForKey ? 1 : 0));
+
+        buffer.putLong(instructions);
+        buffer.putLong(frames);
+        buffer.putInt(timerBudget);
+        buffer.putInt(blockBudget);
+    }
+
+    void readState(ByteBuffer buffer) {
+        for (int x = 0; x < 16; x++) {
+            regsVx[x] = buffer.get() & 0xFF;
+        }
+        regI = buffer.getShort() & 0xFFFF;
+
+        regDT = buffer.get() & 0xFF;
+        regST = buffer.get() & 0xFF;
+
+        pc = buffer.getShort() & 0xFFFF;
+        sp = buffer.get() & 0xFF;
+
+        for (int i = 0; i < 16; i++) {
+            stack[i] = buffer.getShort() & 0xFFFF;
+        }
+
+        randomState = buffer.getLong();
+        waitingForKey = buffer.get() != 0;
+
+        instructions = buffer.getLong();
+        frames = buffer.getLong();
+        timerBudget = buffer.getInt();
+        blockBudget = buffer.getInt();
+
+        if (regST > 0) {
+            buzzer.startPlaying();
+        } else {
+            buzzer.stopPlaying();
+        }
+
+        if (recompiler != null) {
+            recompiler.clear();
+        }
+    }
+
+    // Describes the first difference from other's registers and counters, or returns null if they match.
+    String findStateDifference(Processor other) {
+        for (int x = 0; x < 16; x++) {
+            if (regsVx[x] != other.regsVx[x]) {
+                return String.format("V%X: 0x%02x vs 0x%02x", x, regsVx[x], other.regsVx[x]);
+            }
+        }
+
+        if (regI != other.regI) {
+            return String.format("I: 0x%04x vs 0x%04x", regI, other.regI);
+        }
+        if (regDT != other.regDT || regST != other.regST) {
+            return String.format("DT/ST: 0x%02x/0x%02x vs 0x%02x/0x%02x", regDT, regST, other.regDT, other.regST);
+        }
+        if (pc != other.pc) {
+            return String.format("PC: 0x%04x vs 0x%04x", pc, other.pc);
+        }
+        if (sp != other.sp || !Arrays.equals(stack, other.stack)) {
+            return "Stack: " + sp + " " + Arrays.toString(stack) + " vs " + other.sp + " " + Arrays.toString(other.stack);
+        }
+        if (randomState != other.randomState) {
+            return "RND state differs";
+        }
+        if (instructions != other.instructions || frames != other.frames || timerBudget != other.timerBudget) {
+            return "Counters: " + instructions + "/" + frames + "/" + timerBudget + " vs " + other.instructions + "/"
+                    + other.frames + "/" + other.timerBudget;
+        }
+
+        return null;
+    }
+
+
+    // Rough heap size of the processor's own state, plus the recompiler's if there is one
+    long getFootprint() {
+        long footprint = Footprint.object(14 * Footprint.REFERENCE + 7 * 4 + 5 * 8 + 3)
+                + 2 * Footprint.array(16, 4)                        // regsVx and stack
+                + 2 * Footprint.object(2 * Footprint.REFERENCE);    // posted, an empty queue and its dummy node
+        if (recompiler != null) {
+            footprint += recompiler.getFootprint();
+        }
+
+        return footprint;
+    }
+
+
+    private void reportSpeed(long elapsedNanos) {
+        long instructions = instructionsExecuted;
+        double seconds = elapsedNanos / 1e9;
+
+        System.out.println(String.format("Executed %d instructions in %.2fs (%.0f instructions per second)",
+                instructions, seconds, instructions / seconds));
+    }
+
+
+    // Runs a block of instructions every 20ms and, with wall-clock timers, ticks them at 60Hz, until stop(). Both keep
+    // to deadlines set from when the processor started (see Pacer), rather than waiting a fixed delay after the last
+    // one finished, so time spent running them doesn't add up into drift. In between, the thread parks until whichever
+    // is due next.
+    private void processPaced() {
+        long now = System.nanoTime();
+        Pacer blocks = new Pacer(BLOCKS_PER_SECOND, now);
+        Pacer ticks = cycleTimers ? null : new Pacer(TIMER_HZ, now);
+
+        while (running) {
+            Pacer next = ticks != null && ticks.getNextStart() < blocks.getNextStart() ? ticks : blocks;
+
+            now = System.nanoTime();
+            long wait = next.getNextStart() - now;
+            if (wait > 0) {
+                LockSupport.parkNanos(wait); // May return early, e.g. from stop(), in which case we just look again
+                continue;
+            }
+
+            long lateness = next.start(now);
+            if (next == blocks) {
+                if (metrics != null) {
+                    metrics.recordBlockDelay(lateness);
                 }
-            } catch (Throwable t) {
-                t.printStackTrace();
-                throw t;
+                processInstructionBlock();
+            } else {
+                if (metrics != null) {
+                    metrics.recordTimerDelay(lateness);
+                }
+                processTimerTick();
             }
-        }, 0, 16667, TimeUnit.MICROSECONDS);
+        }
     }
 
-    public void stop() {
-        clock.cancel(true);
-        timer.cancel(true);
+    // Runs one 20ms block, timing it for the metrics
+    private void processInstructionBlock() {
+        long start = metrics != null ? System.nanoTime() : 0;
+
+        runPosted();
+
+        // Instead of running, go back through history in real time
+        if (rewindBuffer != null && rewindBuffer.isRewinding()) {
+            rewindBuffer.stepBack();
+        } else {
+            runBlock();
+        }
+
+        if (metrics != null) {
+            metrics.recordBlock(System.nanoTime() - start);
+        }
     }
 
+    // Runs the instructions for one 20ms block. The budget carries the remainder over, so IPS values that don't divide
+    // evenly into blocks still average out.
+    private void runBlock() {
+        blockBudget += options.getInstructionsPerSecond();
+
+        run(blockBudget / BLOCKS_PER_SECOND);
+        blockBudget %= BLOCKS_PER_SECOND;
 
-    private void processInstructionBlock() throws InterruptedException {
-        for (int i = 0; i < 10; i++) {
-            int instructionBytes = (memory.getLocation(pc) << 8) | memory.getLocation(pc + 1);
-            Instruction instruction = Instruction.parseInstructionBytes(instructionBytes);
+        instructionsExecuted = instructions;
+    }
 
-            if (instruction != null) {
-                processInstruction(instruction);
+    // A 60Hz tick of the wall clock, when timers follow it
+    private void processTimerTick() {
+        tickTimers();
+        if (rewindBuffer != null) {
+            rewindBuffer.capture();
+        }
+    }
+
+    // Runs as fast as the host allows, until stop(). Timers always follow the instruction count here, since there's no
+    // wall clock to keep them in step with.
+    //
+    // Except while halted on LD_Vx_K: rather than spin, emulated time passes at --ips, 20ms at a time, parking in
+    // between, so the timers still count down (and the buzzer stops) while using next to no CPU. A key press, or
+    // anything post()ed, unparks the thread straight away. Replays keep going flat out, since their key presses are
+    // already known.
+    private void processUncapped() {
+        Pacer halt = null; // Only while halted
+
+        while (running) {
+            runPosted();
+
+            if (rewindBuffer != null && rewindBuffer.isRewinding()) {
+                rewindBuffer.stepBack();
+                LockSupport.parkNanos(1000000);
+                continue;
             }
 
-            pc = (pc + 2) & 0xFFFF;
+            if (waitingForKey && replay == null && !keyboard.hasKeyPress()) {
+                if (halt == null) {
+                    halt = new Pacer(BLOCKS_PER_SECOND, System.nanoTime());
+                }
+
+                long wait = halt.getNextStart() - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                } else {
+                    halt.start(System.nanoTime());
+                    runBlock();
+                }
+                continue;
+            }
+            halt = null;
+
+            long start = metrics != null ? System.nanoTime() : 0;
+
+            run(UNCAPPED_BLOCK_SIZE);
+
+            instructionsExecuted = instructions;
+            if (metrics != null) {
+                metrics.recordBlock(System.nanoTime() - start);
+            }
         }
     }
 
-    private void processInstruction(Instruction instruction) throws InterruptedException {
+    private void processInstruction(Instruction instruction) {
         int nnn = instruction.getNnn();
         int n = instruction.getN();
         int x = instruction.getX();
@@ -156,13 +711,20 @@ public class Processor {
 
 
     // Opcode information pulled from http://devernay.free.fr/hacks/chip8/C8TECH10.HTM
+    //
+    // Each method is named after its Opcode, and takes the operands that opcode uses in the order nnn, x, y, n, kk.
+    // They're package-private because the Recompiler emits calls to them by that convention.
 
     /*
      * 00E0 - CLS
      * Clear the display.
      */
-    private void CLS() {
+    void CLS() {
         display.clear();
+
+        if (metrics != null) {
+            metrics.countClear();
+        }
     }
 
     /*
@@ -172,7 +734,7 @@ public class Processor {
      * The interpreter sets the program counter to the address at the top of the stack, then subtracts 1 from the stack
      * pointer.
      */
-    private void RET() {
+    void RET() {
         pc = stack[sp];
         sp = (sp - 1) & 0xFF;
     }
@@ -183,7 +745,7 @@ public class Processor {
      *
      * The interpreter sets the program counter to nnn.
      */
-    private void JP(int nnn) {
+    void JP(int nnn) {
         pc = (nnn - 2) & 0xFFFF;
     }
 
@@ -194,7 +756,7 @@ public class Processor {
      * The interpreter increments the stack pointer, then puts the current PC on the top of the stack. The PC is then
      * set to nnn.
      */
-    private void CALL(int nnn) {
+    void CALL(int nnn) {
         sp = (sp + 1) & 0xFF;
         stack[sp] = pc;
         pc = (nnn - 2) & 0xFFFF;
@@ -206,7 +768,7 @@ public class Processor {
      *
      * The interpreter compares register Vx to kk, and if they are equal, increments the program counter by 2.
      */
-    private void SE_Vx_byte(int x, int kk) {
+    void SE_Vx_byte(int x, int kk) {
         if (regsVx[x] == kk) {
             pc = (pc + 2) & 0xFFFF;
         }
@@ -218,7 +780,7 @@ public class Processor {
      *
      * The interpreter compares register Vx to kk, and if they are not equal, increments the program counter by 2.
      */
-    private void SNE_Vx_byte(int x, int kk) {
+    void SNE_Vx_byte(int x, int kk) {
         if (regsVx[x] != kk) {
             pc = (pc + 2) & 0xFFFF;
         }
@@ -230,7 +792,7 @@ public class Processor {
      *
      * The interpreter compares register Vx to register Vy, and if they are equal, increments the program counter by 2.
      */
-    private void SE_Vx_Vy(int x, int y) {
+    void SE_Vx_Vy(int x, int y) {
         if (regsVx[x] == regsVx[y]) {
             pc = (pc + 2) & 0xFFFF;
         }
@@ -242,7 +804,7 @@ public class Processor {
      *
      * The interpreter puts the value kk into register Vx.
      */
-    private void LD_Vx_byte(int x, int kk) {
+    void LD_Vx_byte(int x, int kk) {
         regsVx[x] = kk;
     }
 
@@ -252,7 +814,7 @@ public class Processor {
      *
      * Adds the value kk to the value of register Vx, then stores the result in Vx.
      */
-    private void ADD_Vx_byte(int x, int kk) {
+    void ADD_Vx_byte(int x, int kk) {
         regsVx[x] = (regsVx[x] + kk) & 0xFF;
     }
 
@@ -262,7 +824,7 @@ public class Processor {
      *
      * Stores the value of register Vy in register Vx.
      */
-    private void LD_Vx_Vy(int x, int y) {
+    void LD_Vx_Vy(int x, int y) {
         regsVx[x] = regsVx[y];
     }
 
@@ -274,7 +836,7 @@ public class Processor {
      * corresponding bits from two values, and if either bit is 1, then the same bit in the result is also 1. Otherwise,
      * it is 0.
      */
-    private void OR(int x, int y) {
+    void OR(int x, int y) {
         regsVx[x] = regsVx[x] | regsVx[y];
     }
 
@@ -286,7 +848,7 @@ public class Processor {
      * corresponding bits from two values, and if both bits are 1, then the same bit in the result is also 1. Otherwise,
      * it is 0.
      */
-    private void AND(int x, int y) {
+    void AND(int x, int y) {
         regsVx[x] = regsVx[x] & regsVx[y];
     }
 
@@ -298,7 +860,7 @@ public class Processor {
      * compares the corresponding bits from two values, and if the bits are not both the same, then the corresponding
      * bit in the result is set to 1. Otherwise, it is 0.
      */
-    private void XOR(int x, int y) {
+    void XOR(int x, int y) {
         regsVx[x] = regsVx[x] ^ regsVx[y];
     }
 
@@ -309,7 +871,7 @@ public class Processor {
      * The values of Vx and Vy are added together. If the result is greater than 8 bits (i.e., > 255,) VF is set to 1,
      * otherwise 0. Only the lowest 8 bits of the result are kept, and stored in Vx.
      */
-    private void ADD_Vx_Vy(int x, int y) {
+    void ADD_Vx_Vy(int x, int y) {
         int result = regsVx[x] + regsVx[y];
 
         if (result > 255) {
@@ -326,7 +888,7 @@ public class Processor {
      *
      * If Vx > Vy, then VF is set to 1, otherwise 0. Then Vy is subtracted from Vx, and the results stored in Vx.
      */
-    private void SUB(int x, int y) {
+    void SUB(int x, int y) {
         int Vx = regsVx[x];
         int Vy = regsVx[y];
 
@@ -349,7 +911,7 @@ public class Processor {
      *  - Vx = Vy = Vy >> 1, VF = LSB of Vy prior to shift.
      *  - Vx = Vy >> 1, VF = LSB of Vy prior to shift.
      */
-    private void SHR(int x, int y) {
+    void SHR(int x, int y) {
         if ((regsVx[x] & 1) == 1) {
             regsVx[0xF] = 1;
         } else {
@@ -366,7 +928,7 @@ public class Processor {
      *
      * If Vy > Vx, then VF is set to 1, otherwise 0. Then Vx is subtracted from Vy, and the results stored in Vx.
      */
-    private void SUBN(int x, int y) {
+    void SUBN(int x, int y) {
         int Vx = regsVx[x];
         int Vy = regsVx[y];
 
@@ -386,7 +948,7 @@ public class Processor {
      *
      * IMPL. VARIANCE: See SHR.
      */
-    private void SHL(int x, int y) {
+    void SHL(int x, int y) {
         if (((regsVx[x] >> 7) & 1) == 1) {
             regsVx[0xF] = 1;
         } else {
@@ -403,7 +965,7 @@ public class Processor {
      *
      * The values of Vx and Vy are compared, and if they are not equal, the program counter is increased by 2.
      */
-    private void SNE_Vx_Vy(int x, int y) {
+    void SNE_Vx_Vy(int x, int y) {
         if (regsVx[x] != regsVx[y]) {
             pc = (pc + 2) & 0xFFFF;
         }
@@ -415,7 +977,7 @@ public class Processor {
      *
      * The value of register I is set to nnn.
      */
-    private void LD_I_addr(int nnn) {
+    void LD_I_addr(int nnn) {
         regI = nnn;
     }
 
@@ -425,7 +987,7 @@ public class Processor {
      *
      * The program counter is set to nnn plus the value of V0.
      */
-    private void JP_V0_addr(int nnn) {
+    void JP_V0_addr(int nnn) {
         pc = (nnn + regsVx[0] - 2) & 0xFFFF;
     }
 
@@ -436,11 +998,8 @@ public class Processor {
      * The interpreter generates a random number from 0 to 255, which is then ANDed with the value kk. The results are
      * stored in Vx. See instruction 8xy2 for more information on AND.
      */
-    private void RND(int x, int kk) {
-        byte[] rand = new byte[1];
-        ThreadLocalRandom.current().nextBytes(rand);
-
-        regsVx[x] = rand[0] & kk;
+    void RND(int x, int kk) {
+        regsVx[x] = nextRandomByte() & kk;
     }
 
     /*
@@ -455,11 +1014,14 @@ public class Processor {
      *
      * IMPL. VARIANCE: Some games assume no wrapping occurs. This can be enforced with the `--clip-edges` launch option.
      */
-    private void DRW(int x, int y, int n) {
-        boolean collision = display.drawSprite(regsVx[x], regsVx[y], memory.getRange(regI, regI + n),
-                options.isClipEdges());
+    void DRW(int x, int y, int n) {
+        boolean collision = display.drawSprite(regsVx[x], regsVx[y], memory, regI, n, options.isClipEdges());
 
         regsVx[0xF] = collision ? 1 : 0;
+
+        if (metrics != null) {
+            metrics.countDraw();
+        }
     }
 
     /*
@@ -469,7 +1031,7 @@ public class Processor {
      * Checks the keyboard, and if the key corresponding to the value of Vx is currently in the down position, PC is
      * increased by 2.
      */
-    private void SKP(int x) {
+    void SKP(int x) {
         if (keyboard.isKeyPressed(regsVx[x])) {
             pc = (pc + 2) & 0xFFFF;
         }
@@ -482,7 +1044,7 @@ public class Processor {
      * Checks the keyboard, and if the key corresponding to the value of Vx is currently in the up position, PC is
      * increased by 2.
      */
-    private void SKNP(int x) {
+    void SKNP(int x) {
         if (!keyboard.isKeyPressed(regsVx[x])) {
             pc = (pc + 2) & 0xFFFF;
         }
@@ -494,7 +1056,7 @@ public class Processor {
      *
      * The value of DT is placed into Vx.
      */
-    private void LD_Vx_DT(int x) {
+    void LD_Vx_DT(int x) {
         regsVx[x] = regDT;
     }
 
@@ -503,9 +1065,26 @@ public class Processor {
      * Wait for a key press, store the value of the key in Vx.
      *
      * All execution stops until a key is pressed, then the value of that key is stored in Vx.
+     *
+     * Rather than blocking, the processor halts here by re-executing this instruction until a key press arrives. Only
+     * presses made after the wait begins count, give or take a block (see getKeyPressGrace()), so a key that was
+     * already held doesn't end it. Once halted, the re-executions are skipped over in bulk (see idle()), so the halt
+     * costs nothing while timers carry on, and the thread can park.
      */
-    private void LD_Vx_K(int x) throws InterruptedException {
-        regsVx[x] = keyboard.waitForKey();
+    void LD_Vx_K(int x) {
+        if (!waitingForKey) {
+            keyboard.discardKeyPressBefore(instructions - getKeyPressGrace(options.getInstructionsPerSecond()));
+            waitingForKey = true;
+        }
+
+        int key = keyboard.takeKeyPress();
+        if (key == -1) {
+            pc = (pc - 2) & 0xFFFF;
+            return;
+        }
+
+        waitingForKey = false;
+        regsVx[x] = key;
     }
 
     /*
@@ -514,7 +1093,7 @@ public class Processor {
      *
      * DT is set equal to the value of Vx.
      */
-    private void LD_DT_Vx(int x) {
+    void LD_DT_Vx(int x) {
         regDT = regsVx[x];
     }
 
@@ -524,11 +1103,11 @@ public class Processor {
      *
      * ST is set equal to the value of Vx.
      */
-    private void LD_ST_Vx(int x) {
+    void LD_ST_Vx(int x) {
         regST = regsVx[x];
 
         if (regST > 0) {
-            speaker.startPlaying();
+            buzzer.startPlaying();
         }
     }
 
@@ -538,7 +1117,7 @@ public class Processor {
      *
      * The values of I and Vx are added, and the results are stored in I.
      */
-    private void ADD_I_Vx(int x) {
+    void ADD_I_Vx(int x) {
         regI = (regI + regsVx[x]) & 0xFFFF;
     }
 
@@ -549,7 +1128,7 @@ public class Processor {
      * The value of I is set to the location for the hexadecimal sprite corresponding to the value of Vx. See section
      * 2.4, Display, for more information on the Chip-8 hexadecimal font.
      */
-    private void LD_F_Vx(int x) {
+    void LD_F_Vx(int x) {
         regI = (0x5 * regsVx[x]) & 0xFFFF;
     }
 
@@ -560,7 +1139,7 @@ public class Processor {
      * The interpreter takes the decimal value of Vx, and places the hundreds digit in memory at location in I, the tens
      * digit at location I+1, and the ones digit at location I+2.
      */
-    private void LD_B_Vx(int x) {
+    void LD_B_Vx(int x) {
         memory.setLocation(regI, (regsVx[x] / 100) % 10);
         memory.setLocation(regI + 1, (regsVx[x] / 10) % 10);
         memory.setLocation(regI + 2, (regsVx[x] % 10));
@@ -574,7 +1153,7 @@ public class Processor {
      *
      * IMPL. VARIANCE: Sometimes also sets I = I + x + 1.
      */
-    private void LD_I_Vx(int x) {
+    void LD_I_Vx(int x) {
         for (int i = 0; i <= x; i++) {
             memory.setLocation((regI + i) & 0xFFFF, regsVx[i]);
         }
@@ -590,7 +1169,7 @@ public class Processor {
      *
      * IMPL. VARIANCE: Sometimes also sets I = I + x + 1.
      */
-    private void LD_Vx_I(int x) {
+    void LD_Vx_I(int x) {
         for (int i = 0; i <= x; i++) {
             regsVx[i] = memory.getLocation((regI + i) & 0xFFFF);
         }
@@ -598,4 +1177,35 @@ public class Processor {
         //regI = (regI + x + 1) & 0xFFFF;
     }
 
+
+    // splitmix64, so that similar seeds still give unrelated (and never zero) xorshift states. Package-private, along
+    // with the two below, so LockstepBatch's lanes draw exactly the same numbers.
+    static long seedRandom(long seed) {
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+
+        return z != 0 ? z : 1;
+    }
+
+    // xorshift64*, see https://en.wikipedia.org/wiki/Xorshift#xorshift*
+    static long nextRandomState(long state) {
+        state ^= state >>> 12;
+        state ^= state << 25;
+        state ^= state >>> 27;
+
+        return state;
+    }
+
+    static int randomByte(long state) {
+        return (int) ((state * 0x2545F4914F6CDD1DL) >>> 56);
+    }
+
+    private int nextRandomByte() {
+        randomState = nextRandomState(randomState);
+
+        return randomByte(randomState);
+    }
+
 }
@@ -0,0 +1,111 @@
+package me.sudsey.chip8.interpret;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// What the processor thread is up to, for watching a long session live over JMX (see Interpreter.run()): how fast it's
+// executing, how often the game draws and clears the screen, how long each block of instructions takes, and how late
+// blocks and wall-clock timer ticks start against their deadlines (see Pacer), i.e. how evenly the game is paced.
+//
+// The processor only ever adds to counters and histograms here; turning them into rates and percentiles is left to
+// whoever reads them, on their own thread.
+
+public class ProcessorMetrics implements ProcessorMetricsMBean {
+
+    private Processor processor;
+
+    private LongAdder draws;
+    private LongAdder clears;
+
+    private Rate instructionRate;
+    private Rate drawRate;
+    private Rate clearRate;
+
+    private LatencyHistogram blockLatency;  // Time taken by each block, capped or uncapped
+    private LatencyHistogram blockDelay;    // How late each capped block started
+    private LatencyHistogram timerDelay;    // How late each wall-clock timer tick started
+
+    public ProcessorMetrics(Processor processor) {
+        this.processor = processor;
+
+        this.draws = new LongAdder();
+        this.clears = new LongAdder();
+
+        this.instructionRate = new Rate(processor::getInstructionsExecuted);
+        this.drawRate = new Rate(draws::sum);
+        this.clearRate = new Rate(clears::sum);
+
+        this.blockLatency = new LatencyHistogram();
+        this.blockDelay = new LatencyHistogram();
+        this.timerDelay = new LatencyHistogram();
+    }
+
+
+    // Called by the processor, with times in nanoseconds
+
+    void recordBlock(long duration) {
+        blockLatency.record(duration);
+    }
+
+    void recordBlockDelay(long lateness) {
+        blockDelay.record(lateness);
+    }
+
+    void recordTimerDelay(long lateness) {
+        timerDelay.record(lateness);
+    }
+
+    void countDraw() {
+        draws.increment();
+    }
+
+    void countClear() {
+        clears.increment();
+    }
+
+
+    @Override
+    public long getInstructions() {
+        return processor.getInstructionsExecuted();
+    }
+
+    @Override
+    public double getInstructionsPerSecond() {
+        return instructionRate.get();
+    }
+
+    @Override
+    public long getDraws() {
+        return draws.sum();
+    }
+
+    @Override
+    public double getDrawsPerSecond() {
+        return drawRate.get();
+    }
+
+    @Override
+    public long getClears() {
+        return clears.sum();
+    }
+
+    @Override
+    public double getClearsPerSecond() {
+        return clearRate.get();
+    }
+
+
+    // Registered as MBeans of their own, see Interpreter
+
+    public LatencyHistogram getBlockLatency() {
+        return blockLatency;
+    }
+
+    public LatencyHistogram getBlockDelay() {
+        return blockDelay;
+    }
+
+    public LatencyHistogram getTimerDelay() {
+        return timerDelay;
+    }
+
+}
@@ -0,0 +1,19 @@
+package me.sudsey.chip8.interpret;
+
+// See ProcessorMetrics. Rates are per second of wall clock time.
+
+public interface ProcessorMetricsMBean {
+
+    long getInstructions();
+
+    double getInstructionsPerSecond();
+
+    long getDraws();
+
+    double getDrawsPerSecond();
+
+    long getClears();
+
+    double getClearsPerSecond();
+
+}
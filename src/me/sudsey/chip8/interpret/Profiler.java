@@ -0,0 +1,317 @@
+package me.sudsey.chip8.interpret;
+
+import me.sudsey.chip8.commons.Instruction;
+import me.sudsey.chip8.commons.Opcode;
+import me.sudsey.chip8.disassemble.Block;
+import me.sudsey.chip8.disassemble.BlockMap;
+import me.sudsey.chip8.disassemble.Disassembler;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// Counts what the processor does, instruction by instruction: executions of each address and opcode, sprites drawn,
+// time spent halted on LD_Vx_K, loops (jumps backwards), and which subroutines the time goes to, following CALL and
+// RET. Writes a text report of all that, and the time by call stack in the collapsed format flame graph tools read
+// (https://github.com/brendangregg/FlameGraph).
+//
+// While a profiler is set, the processor runs everything through the interpreter, so nothing is missed inside
+// recompiled blocks. Without one, the only cost is a null check per run of instructions. Only ever touched on the
+// thread running the processor; read the results once it has stopped.
+
+public class Profiler {
+
+    private static final int DATA = Opcode.values().length; // Index of words that aren't instructions in opcodeCounts
+    private static final int HOT_ADDRESSES = 20;
+    private static final int HOT_LOOPS = 10;
+
+
+    // A node in the tree of call stacks
+    private static class Frame {
+        private int function;
+        private Frame parent;
+        private Frame child;    // First of the functions called from here
+        private Frame sibling;  // Next function called from parent
+        private long instructions; // Executed in this function with exactly this stack, not counting callees
+
+        private Frame(int function, Frame parent) {
+            this.function = function;
+            this.parent = parent;
+        }
+
+        private Frame getChild(int function) {
+            for (Frame frame = child; frame != null; frame = frame.sibling) {
+                if (frame.function == function) {
+                    return frame;
+                }
+            }
+
+            Frame frame = new Frame(function, this);
+            frame.sibling = child;
+            child = frame;
+            return frame;
+        }
+    }
+
+
+    private Memory memory;
+
+    private long[] executions;      // By address, not counting re-executions while halted on LD_Vx_K
+    private long[] opcodeCounts;    // By Opcode ordinal, then DATA
+    private long instructions;
+
+    private long[] backwardJumps;   // Times the jump at each address went backwards, i.e. round a loop
+    private int[] loopStarts;       // Where it last went to
+
+    private long draws;
+    private long spritePixels;      // Set bits in the sprites drawn, so pixels flipped (clipped or not)
+    private long collisions;
+
+    private long keyWaits;
+    private long haltedInstructions;    // LD_Vx_K re-executed while waiting
+    private long waitNanos;
+    private long waitFrames;
+    private long waitStartTime;         // When the current wait began
+    private long waitStartFrame;
+
+    private Frame root;
+    private Frame current;
+
+    public Profiler(Memory memory) {
+        this.memory = memory;
+
+        this.executions = new long[Memory.SIZE];
+        this.opcodeCounts = new long[DATA + 1];
+
+        this.backwardJumps = new long[Memory.SIZE];
+        this.loopStarts = new int[Memory.SIZE];
+
+        this.root = new Frame(Memory.ROM_START, null);
+        this.current = root;
+    }
+
+
+    // Called by the processor around every instruction it executes, with address the instruction's
+
+    void beforeInstruction(Processor processor, int address, Instruction instruction) {
+        if (processor.isWaitingForKey()) {
+            haltedInstructions++;
+            return;
+        }
+
+        if (address < Memory.SIZE) {
+            executions[address]++;
+        }
+        opcodeCounts[instruction != null ? instruction.getOpcode().ordinal() : DATA]++;
+        instructions++;
+        current.instructions++;
+
+        if (instruction != null && instruction.getOpcode() == Opcode.DRW) {
+            draws++;
+            for (int i = 0; i < instruction.getN(); i++) {
+                spritePixels += Integer.bitCount(memory.getLocationOrZero(processor.getI() + i));
+            }
+        }
+    }
+
+    void afterInstruction(Processor processor, int address, Instruction instruction, boolean wasWaitingForKey) {
+        if (processor.isWaitingForKey() != wasWaitingForKey) {
+            if (!wasWaitingForKey) {
+                keyWaits++;
+                waitStartTime = System.nanoTime();
+                waitStartFrame = processor.getFrames();
+            } else {
+                waitNanos += System.nanoTime() - waitStartTime;
+                waitFrames += processor.getFrames() - waitStartFrame;
+            }
+        }
+
+        if (instruction == null || wasWaitingForKey) {
+            return;
+        }
+
+        switch (instruction.getOpcode()) {
+            case CALL:
+                current = current.getChild(instruction.getNnn());
+                break;
+            case RET:
+                // A RET with nothing to return to crashes the processor, so there's always a parent in practice
+                current = current.parent != null ? current.parent : root;
+                break;
+            case JP:
+            case JP_V0_addr:
+                int target = processor.getPc();
+                if (target <= address && address < Memory.SIZE) {
+                    backwardJumps[address]++;
+                    loopStarts[address] = target;
+                }
+                break;
+            case DRW:
+                collisions += processor.getRegister(0xF);
+        }
+    }
+
+    // Re-executions of LD_Vx_K that the processor skipped over while halted, see Processor.idle()
+    void countHalted(int count) {
+        haltedInstructions += count;
+    }
+
+
+    public long getInstructions() {
+        return instructions;
+    }
+
+    public long getExecutions(int address) {
+        return address >= 0 && address < Memory.SIZE ? executions[address] : 0;
+    }
+
+    public long getOpcodeCount(Opcode opcode) {
+        return opcodeCounts[opcode.ordinal()];
+    }
+
+
+    // The report, with hot addresses and loops labelled by control flow analysis of memory as it is now
+    public void writeReport(Path path, Processor processor) throws IOException {
+        Files.writeString(path, formatReport(processor));
+    }
+
+    // One line per call stack, e.g. "main;sub_0300;sub_0340 1234", weighted by instructions executed
+    public void writeCollapsedStacks(Path path) throws IOException {
+        BlockMap blocks = analyzeMemory();
+        StringBuilder builder = new StringBuilder();
+
+        appendStacks(builder, blocks, root, getLabel(blocks, root.function));
+
+        Files.writeString(path, builder);
+    }
+
+    private void appendStacks(StringBuilder builder, BlockMap blocks, Frame frame, String stack) {
+        if (frame.instructions > 0) {
+            builder.append(stack).append(' ').append(frame.instructions).append('\n');
+        }
+
+        for (Frame child = frame.child; child != null; child = child.sibling) {
+            appendStacks(builder, blocks, child, stack + ";" + getLabel(blocks, child.function));
+        }
+    }
+
+
+    private String formatReport(Processor processor) {
+        BlockMap blocks = analyzeMemory();
+        Disassembler disassembler = new Disassembler(Disassembler.Format.TEXT);
+
+        StringWriter writer = new StringWriter();
+        PrintWriter out = new PrintWriter(writer);
+
+        out.println(String.format("Profiled %d instructions over %d frames", instructions, processor.getFrames()));
+        out.println();
+
+        out.println("Hottest addresses:");
+        for (int address : getHottest(executions, HOT_ADDRESSES)) {
+            out.println(String.format("  %12d  %6.2f%%  %-10s  %s", executions[address], getShare(executions[address]),
+                    getBlockLabel(blocks, address), disassembler.getLine(address, memory.getWord(address))));
+        }
+        out.println();
+
+        out.println("Hottest loops (by instructions executed inside, not counting subroutines):");
+        List<Integer> loops = getHottestLoops();
+        if (loops.isEmpty()) {
+            out.println("  none");
+        }
+        for (int end : loops) {
+            int start = loopStarts[end];
+            out.println(String.format("  0x%04x-0x%04x  %-10s  %12d times round, %12d instructions, %6.2f%%", start,
+                    end, getBlockLabel(blocks, start), backwardJumps[end], getLoopInstructions(end),
+                    getShare(getLoopInstructions(end))));
+        }
+        out.println();
+
+        out.println("By opcode:");
+        for (int i : getHottest(opcodeCounts, opcodeCounts.length)) {
+            String name = i == DATA ? "DATA" : Opcode.values()[i].name();
+            out.println(String.format("  %-11s  %12d  %6.2f%%", name, opcodeCounts[i], getShare(opcodeCounts[i])));
+        }
+        out.println();
+
+        out.println(String.format("DRW: %d sprites, %d pixels flipped, %d with collisions", draws, spritePixels,
+                collisions));
+
+        long nanos = waitNanos;
+        long frames = waitFrames;
+        if (processor.isWaitingForKey()) {
+            nanos += System.nanoTime() - waitStartTime;
+            frames += processor.getFrames() - waitStartFrame;
+        }
+        out.println(String.format("LD_Vx_K: waited %d times, %.2fs of wall clock time and %d frames in all%s " +
+                        "(%d instructions spent halted)", keyWaits, nanos / 1e9, frames,
+                processor.isWaitingForKey() ? ", still waiting at the end" : "", haltedInstructions));
+
+        out.flush();
+        return writer.toString();
+    }
+
+    // Indices of the count largest non-zero counts, largest first
+    private static List<Integer> getHottest(long[] counts, int count) {
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                indices.add(i);
+            }
+        }
+
+        indices.sort((a, b) -> Long.compare(counts[b], counts[a]));
+        return indices.subList(0, Math.min(count, indices.size()));
+    }
+
+    // Addresses of the backward jumps that close the hottest loops
+    private List<Integer> getHottestLoops() {
+        long[] loopInstructions = new long[Memory.SIZE];
+        for (int end = 0; end < Memory.SIZE; end++) {
+            if (backwardJumps[end] > 0) {
+                loopInstructions[end] = getLoopInstructions(end);
+            }
+        }
+
+        return getHottest(loopInstructions, HOT_LOOPS);
+    }
+
+    private long getLoopInstructions(int end) {
+        long count = 0;
+        for (int address = loopStarts[end]; address <= end; address++) {
+            count += executions[address];
+        }
+
+        return count;
+    }
+
+    private double getShare(long count) {
+        return instructions > 0 ? 100.0 * count / instructions : 0;
+    }
+
+
+    // Whatever's in memory from 0x200 now, including anything written there since loading
+    private BlockMap analyzeMemory() {
+        byte[] rom = new byte[Memory.MAX_ROM_SIZE];
+        for (int i = 0; i < rom.length; i++) {
+            rom[i] = (byte) memory.getLocation(Memory.ROM_START + i);
+        }
+
+        return BlockMap.analyze(rom);
+    }
+
+    // The label of the block address is in, if control flow analysis found one
+    private static String getBlockLabel(BlockMap blocks, int address) {
+        Block block = blocks.getBlockContaining(address);
+        return block != null ? block.getLabel() : "";
+    }
+
+    private static String getLabel(BlockMap blocks, int function) {
+        Block block = blocks.getBlock(function);
+        return block != null ? block.getLabel() : String.format("sub_%04x", function);
+    }
+
+}
@@ -0,0 +1,42 @@
+package me.sudsey.chip8.interpret;
+
+import java.util.function.LongSupplier;
+
+// Turns a running count into a rate per second, averaged over the time since the rate was last worked out. That's
+// never less than a second, so reading it often (as JMX clients do) doesn't make it jumpy, and the counting side pays
+// nothing extra for it.
+
+class Rate {
+
+    private static final long MIN_INTERVAL = 1000000000; // Nanoseconds
+
+
+    private LongSupplier count;
+
+    private long lastCount;
+    private long lastTime;
+    private double perSecond;
+
+    Rate(LongSupplier count) {
+        this.count = count;
+
+        this.lastCount = count.getAsLong();
+        this.lastTime = System.nanoTime();
+    }
+
+
+    synchronized double get() {
+        long now = System.nanoTime();
+        if (now - lastTime < MIN_INTERVAL) {
+            return perSecond;
+        }
+
+        long current = count.getAsLong();
+        perSecond = (current - lastCount) * 1e9 / (now - lastTime);
+
+        lastCount = current;
+        lastTime = now;
+        return perSecond;
+    }
+
+}
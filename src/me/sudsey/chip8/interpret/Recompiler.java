@@ -0,0 +1,361 @@
+package me.sudsey.chip8.interpret;
+
+import me.sudsey.chip8.commons.Instruction;
+import me.sudsey.chip8.commons.Opcode;
+import me.sudsey.chip8.commons.Options;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.objectweb.asm.Opcodes.*;
+
+// Translates hot basic blocks into JVM classes, so HotSpot can compile them like any other code instead of going
+// through fetch, decode and the switch in Processor.processInstruction for every instruction.
+//
+// A block runs from its start address up to and including the first instruction that can change the PC (JP, CALL,
+// RET, skips, JP_V0_addr), or that writes memory (LD_B_Vx, LD_I_Vx), so that a block can never run code it has just
+// overwritten. LD_Vx_K halts the processor, so it's always left to the interpreter. Each generated instruction is a
+// direct call to the Processor method for its opcode, followed by Processor.retire() so timers tick exactly where the
+// interpreter would tick them.
+//
+// Blocks are cached by start address and thrown away when anything is written to memory they cover.
+
+public class Recompiler {
+
+    private static final int MAX_BLOCK_LENGTH = 64;     // Instructions
+    private static final int COMPILE_THRESHOLD = 16;    // Times a start address is reached before it's compiled
+    private static final int MAX_INVALIDATIONS = 8;     // Blocks rewritten more often than this stay interpreted
+
+    private static final String PROCESSOR = Type.getInternalName(Processor.class);
+    private static final String COMPILED_BLOCK = Type.getInternalName(CompiledBlock.class);
+
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private static final AtomicInteger classCount = new AtomicInteger();
+
+    // Lookup.defineHiddenClass only exists from Java 15. Hidden classes can be unloaded as soon as their block is
+    // invalidated, so they're used where available, and Lookup.defineClass otherwise.
+    private static Method defineHiddenClass;
+    private static Object hiddenClassOptions;
+
+    static {
+        try {
+            Class<?> classOption = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            hiddenClassOptions = Array.newInstance(classOption, 0);
+            defineHiddenClass = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class,
+                    boolean.class, hiddenClassOptions.getClass());
+        } catch (ReflectiveOperationException e) {
+            defineHiddenClass = null;
+        }
+    }
+
+
+    private Memory memory;
+    private VirtualDisplay display;
+
+    private CompiledBlock[] blocks; // By start address, null if not compiled (yet)
+    private int[] hits;             // Times each start address has been reached without a compiled block
+    private int[] coverage;         // Number of compiled blocks covering each address
+    private int[] invalidations;    // Times the block at each start address has been thrown away
+
+    // Verification only. A second processor that re-runs each block through the interpreter, from a copy of the
+    // machine's state, to check that both end up in the same state.
+    private boolean verify;
+    private Processor shadowProcessor;
+    private Memory shadowMemory;
+    private VirtualDisplay shadowDisplay;
+
+    public Recompiler(Options options, Memory memory, VirtualDisplay display, VirtualKeyboard keyboard) {
+        this.memory = memory;
+        this.display = display;
+
+        this.blocks = new CompiledBlock[Memory.SIZE];
+        this.hits = new int[Memory.SIZE];
+        this.coverage = new int[Memory.SIZE];
+        this.invalidations = new int[Memory.SIZE];
+
+        this.verify = options.isJitVerify();
+        if (verify) {
+            this.shadowMemory = new Memory();
+            this.shadowDisplay = new VirtualDisplay(Screen.NONE);
+            this.shadowProcessor = new Processor(options, shadowDisplay, keyboard, Buzzer.NONE, shadowMemory);
+        }
+
+        memory.setWriteListener(this::invalidate);
+    }
+
+
+    public void clear() {
+        for (int address = 0; address < Memory.SIZE; address++) {
+            blocks[address] = null;
+            hits[address] = 0;
+            coverage[address] = 0;
+            invalidations[address] = 0;
+        }
+    }
+
+    // Rough heap size of the tables, and of the shadow machine when verifying. Compiled blocks live outside the heap
+    // (as classes), so they're left out.
+    long getFootprint() {
+        long footprint = Footprint.object(8 * Footprint.REFERENCE + 1) + 4 * Footprint.array(Memory.SIZE, 4);
+        if (verify) {
+            footprint += shadowProcessor.getFootprint() + shadowMemory.getFootprint() + shadowDisplay.getFootprint();
+        }
+
+        return footprint;
+    }
+
+    // Executes the compiled block at the processor's PC if there is one and it fits in count instructions, or a single
+    // instruction through the interpreter otherwise. Returns the number of instructions executed.
+    int execute(Processor processor, int count) {
+        int pc = processor.getPc();
+        if (pc >= Memory.SIZE) {
+            processor.cycle();
+            return 1;
+        }
+
+        CompiledBlock block = blocks[pc];
+        if (block == null && invalidations[pc] < MAX_INVALIDATIONS && ++hits[pc] >= COMPILE_THRESHOLD) {
+            hits[pc] = 0;
+            block = compile(pc);
+        }
+
+        if (block == null || block.length > count) {
+            processor.cycle();
+            return 1;
+        }
+
+        if (verify) {
+            runVerified(processor, block);
+        } else {
+            block.run(processor);
+        }
+        return block.length;
+    }
+
+
+    private void invalidate(int address) {
+        if (coverage[address] == 0) {
+            return;
+        }
+
+        for (int start = Math.max(0, address - 2 * MAX_BLOCK_LENGTH + 1); start <= address; start++) {
+            CompiledBlock block = blocks[start];
+
+            if (block != null && start + 2 * block.length > address) {
+                for (int i = start; i < start + 2 * block.length; i++) {
+                    coverage[i]--;
+                }
+                blocks[start] = null;
+                invalidations[start]++;
+            }
+        }
+    }
+
+    private void runVerified(Processor processor, CompiledBlock block) {
+        shadowProcessor.copyStateFrom(processor);
+        shadowMemory.copyFrom(memory);
+        shadowDisplay.copyFrom(display);
+
+        block.run(processor);
+        shadowProcessor.run(block.length);
+
+        String difference = processor.findStateDifference(shadowProcessor);
+        if (difference == null && !memory.contentEquals(shadowMemory)) {
+            difference = "Memory differs";
+        }
+        if (difference == null && !display.contentEquals(shadowDisplay)) {
+            difference = "Display differs";
+        }
+
+        if (difference != null) {
+            throw new IllegalStateException(String.format(
+                    "Recompiled block at 0x%04x doesn't match the interpreter (recompiled vs interpreted). %s",
+                    block.start, difference));
+        }
+    }
+
+
+    // Returns null if there's nothing at start that can be compiled, in which case the interpreter handles it.
+    private CompiledBlock compile(int start) {
+        Instruction[] instructions = new Instruction[MAX_BLOCK_LENGTH];
+        int length = 0;
+
+        for (int address = start; length < MAX_BLOCK_LENGTH && address + 1 < Memory.SIZE; address += 2) {
+            int instructionBytes = memory.getWord(address);
+            Instruction instruction = Instruction.parseInstructionBytes(instructionBytes);
+            Opcode opcode = instruction != null ? instruction.getOpcode() : null;
+
+            if (opcode == Opcode.LD_Vx_K) {
+                break;
+            }
+
+            instructions[length++] = instruction;
+
+            if (opcode != null && (changesPc(opcode) || opcode == Opcode.LD_B_Vx || opcode == Opcode.LD_I_Vx)) {
+                break;
+            }
+        }
+
+        if (length == 0) {
+            return null;
+        }
+
+        CompiledBlock block;
+        try {
+            Class<?> blockClass = defineClass(generateClass(start, instructions, length));
+            block = (CompiledBlock) blockClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not load recompiled block at " + String.format("0x%04x", start), e);
+        }
+
+        for (int i = start; i < start + 2 * length; i++) {
+            coverage[i]++;
+        }
+        blocks[start] = block;
+
+        return block;
+    }
+
+    private static boolean changesPc(Opcode opcode) {
+        switch (opcode) {
+            case RET:
+            case JP:
+            case CALL:
+            case SE_Vx_byte:
+            case SNE_Vx_byte:
+            case SE_Vx_Vy:
+            case SNE_Vx_Vy:
+            case JP_V0_addr:
+            case SKP:
+            case SKNP:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static Class<?> defineClass(byte[] classBytes) throws ReflectiveOperationException {
+        if (defineHiddenClass != null) {
+            return ((MethodHandles.Lookup) defineHiddenClass.invoke(lookup, classBytes, true, hiddenClassOptions))
+                    .lookupClass();
+        }
+
+        return lookup.defineClass(classBytes);
+    }
+
+
+    private static byte[] generateClass(int start, Instruction[] instructions, int length) {
+        String name = String.format("%s$%04x$%d", COMPILED_BLOCK, start, classCount.getAndIncrement());
+
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(V11, ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, name, null, COMPILED_BLOCK, null);
+
+        MethodVisitor constructor = writer.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(ALOAD, 0);
+        pushInt(constructor, start);
+        pushInt(constructor, length);
+        constructor.visitMethodInsn(INVOKESPECIAL, COMPILED_BLOCK, "<init>", "(II)V", false);
+        constructor.visitInsn(RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        MethodVisitor run = writer.visitMethod(0, "run", "(L" + PROCESSOR + ";)V", null, null);
+        run.visitCode();
+
+        boolean endsWithJump = false;
+        for (int i = 0; i < length; i++) {
+            Instruction instruction = instructions[i];
+
+            if (instruction != null) {
+                endsWithJump = changesPc(instruction.getOpcode());
+                generateInstruction(run, start + 2 * i, instruction);
+            }
+
+            run.visitVarInsn(ALOAD, 1);
+            run.visitMethodInsn(INVOKEVIRTUAL, PROCESSOR, "retire", "()V", false);
+        }
+
+        if (!endsWithJump) {
+            run.visitVarInsn(ALOAD, 1);
+            pushInt(run, (start + 2 * length) & 0xFFFF);
+            run.visitFieldInsn(PUTFIELD, PROCESSOR, "pc", "I");
+        }
+
+        run.visitInsn(RETURN);
+        run.visitMaxs(0, 0);
+        run.visitEnd();
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    // Emits processor.<opcode>(operands...). Instructions that read or change the PC get the PC set to their own
+    // address first, and advanced past them afterwards, as in Processor.cycle().
+    private static void generateInstruction(MethodVisitor run, int address, Instruction instruction) {
+        Opcode opcode = instruction.getOpcode();
+        boolean changesPc = changesPc(opcode);
+
+        if (changesPc) {
+            run.visitVarInsn(ALOAD, 1);
+            pushInt(run, address);
+            run.visitFieldInsn(PUTFIELD, PROCESSOR, "pc", "I");
+        }
+
+        StringBuilder descriptor = new StringBuilder("(");
+        run.visitVarInsn(ALOAD, 1);
+
+        if (opcode.usesNnn()) {
+            pushInt(run, instruction.getNnn());
+            descriptor.append('I');
+        }
+        if (opcode.usesX()) {
+            pushInt(run, instruction.getX());
+            descriptor.append('I');
+        }
+        if (opcode.usesY()) {
+            pushInt(run, instruction.getY());
+            descriptor.append('I');
+        }
+        if (opcode.usesN()) {
+            pushInt(run, instruction.getN());
+            descriptor.append('I');
+        }
+        if (opcode.usesKk()) {
+            pushInt(run, instruction.getKk());
+            descriptor.append('I');
+        }
+
+        descriptor.append(")V");
+        run.visitMethodInsn(INVOKEVIRTUAL, PROCESSOR, opcode.name(), descriptor.toString(), false);
+
+        if (changesPc) {
+            run.visitVarInsn(ALOAD, 1);
+            run.visitVarInsn(ALOAD, 1);
+            run.visitFieldInsn(GETFIELD, PROCESSOR, "pc", "I");
+            run.visitInsn(ICONST_2);
+            run.visitInsn(IADD);
+            pushInt(run, 0xFFFF);
+            run.visitInsn(IAND);
+            run.visitFieldInsn(PUTFIELD, PROCESSOR, "pc", "I");
+        }
+    }
+
+    private static void pushInt(MethodVisitor method, int value) {
+        if (value >= -1 && value <= 5) {
+            method.visitInsn(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            method.visitIntInsn(BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            method.visitIntInsn(SIPUSH, value);
+        } else {
+            method.visitLdcInsn(value);
+        }
+    }
+
+}
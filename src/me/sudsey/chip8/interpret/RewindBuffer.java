@@ -0,0 +1,256 @@
+package me.sudsey.chip8.interpret;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// History of the machine's state at every 60Hz frame, for rewinding.
+//
+// Each frame is a SaveState, XORed against the keyframe it belongs to, with runs of zero bytes squeezed out. Frame to
+// frame, very little of the machine changes, so most deltas are a few dozen bytes. A new keyframe (stored the same way,
+// against all zeroes) starts every KEYFRAME_INTERVAL frames. When the buffer goes over its cap, the oldest keyframe is
+// evicted along with all of its deltas.
+//
+// Captures and rewinding happen on the processor thread; only setRewinding() is called from elsewhere.
+
+public class RewindBuffer {
+
+    private static final int KEYFRAME_INTERVAL = 60;
+    private static final int ENTRY_OVERHEAD = 32; // Rough size of an Entry and its array header, for the cap
+    private static final long FRAME_NANOS = 1000000000L / 60;
+
+
+    private static class Entry {
+        private byte[] data;
+        private Entry keyframe; // The keyframe this is a delta against, null if it's a keyframe itself
+
+        private Entry(byte[] data, Entry keyframe) {
+            this.data = data;
+            this.keyframe = keyframe;
+        }
+    }
+
+
+    private Processor processor;
+    private Memory memory;
+    private VirtualDisplay display;
+    private VirtualKeyboard keyboard;
+
+    private long capacity;  // Bytes
+    private long size;      // Bytes currently held, including ENTRY_OVERHEAD per entry
+
+    private Deque<Entry> entries;
+    private Entry keyframe;         // Latest keyframe, null to start a new one at the next capture
+    private int keyframeAge;        // Frames captured since it
+
+    private byte[] state;           // Scratch space, so capturing only allocates the encoded entry
+    private byte[] keyframeState;   // Decoded copy of keyframe
+    private byte[] encoded;
+
+    private volatile boolean rewinding;
+    private long lastStepTime;      // When stepBack() last went back a frame, -1 if it hasn't since rewinding started
+
+    private long captures;
+    private long capturedBytes;
+    private long captureNanos;
+
+    public RewindBuffer(long capacity, Processor processor, Memory memory, VirtualDisplay display,
+                        VirtualKeyboard keyboard) {
+        this.processor = processor;
+        this.memory = memory;
+        this.display = display;
+        this.keyboard = keyboard;
+
+        this.capacity = capacity;
+
+        this.entries = new ArrayDeque<>();
+
+        this.state = new byte[SaveState.SIZE];
+        this.keyframeState = new byte[SaveState.SIZE];
+        // Runs of zeroes are never shorter than their counts, so this is plenty
+        this.encoded = new byte[SaveState.SIZE * 2];
+
+        clear();
+    }
+
+
+    public void clear() {
+        entries.clear();
+        size = 0;
+        keyframe = null;
+        lastStepTime = -1;
+    }
+
+    // Records the machine's current state as the newest frame
+    void capture() {
+        if (rewinding) {
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        lastStepTime = -1;
+
+        SaveState.capture(state, processor, memory, display, keyboard);
+
+        Entry entry;
+        if (keyframe == null || keyframeAge >= KEYFRAME_INTERVAL) {
+            entry = new Entry(encode(state, null), null);
+            keyframe = entry;
+            keyframeAge = 0;
+            System.arraycopy(state, 0, keyframeState, 0, state.length);
+        } else {
+            entry = new Entry(encode(state, keyframeState), keyframe);
+            keyframeAge++;
+        }
+
+        entries.addLast(entry);
+        size += entry.data.length + ENTRY_OVERHEAD;
+        evict();
+
+        captures++;
+        capturedBytes += entry.data.length;
+        captureNanos += System.nanoTime() - startTime;
+    }
+
+    // Drops whole keyframe groups from the old end until the buffer fits, but never the group being added to
+    private void evict() {
+        while (size > capacity && entries.peekFirst() != keyframe) {
+            do {
+                size -= entries.pollFirst().data.length + ENTRY_OVERHEAD;
+            } while (!entries.isEmpty() && entries.peekFirst().keyframe != null);
+        }
+    }
+
+
+    // Called from the window while the rewind key is held
+    public void setRewinding(boolean rewinding) {
+        this.rewinding = rewinding;
+    }
+
+    public boolean isRewinding() {
+        return rewinding;
+    }
+
+    // Goes back as many frames as have passed in real time since the last step, restoring the frame it lands on. The
+    // newest entry is always the frame the machine is in, so that entry is dropped and the one before it restored.
+    void stepBack() {
+        long now = System.nanoTime();
+
+        long steps;
+        if (lastStepTime == -1) {
+            steps = 1;
+            lastStepTime = now;
+        } else {
+            steps = (now - lastStepTime) / FRAME_NANOS;
+            lastStepTime += steps * FRAME_NANOS;
+        }
+
+        boolean stepped = false;
+        for (long i = 0; i < steps && entries.size() > 1; i++) {
+            Entry entry = entries.pollLast();
+            size -= entry.data.length + ENTRY_OVERHEAD;
+            stepped = true;
+        }
+
+        if (stepped) {
+            Entry entry = entries.peekLast();
+
+            if (entry.keyframe == null) {
+                decode(entry.data, null, state);
+            } else {
+                decode(entry.keyframe.data, null, keyframeState);
+                decode(entry.data, keyframeState, state);
+            }
+            SaveState.restore(state, processor, memory, display, keyboard);
+
+            // Deltas from here on would be against a keyframe that may now be in the future
+            keyframe = null;
+        }
+    }
+
+
+    // Encodes state XOR base (or state itself, if base is null) as runs of [zero count, literal count, literals], with
+    // counts as little-endian base-128 varints.
+    private byte[] encode(byte[] state, byte[] base) {
+        int length = 0;
+        int i = 0;
+
+        while (i < state.length) {
+            int zeroStart = i;
+            while (i < state.length && delta(state, base, i) == 0) {
+                i++;
+            }
+            int literalStart = i;
+            // Literal runs swallow single zero bytes, which would cost more as their own run
+            while (i < state.length && (delta(state, base, i) != 0 ||
+                    (i + 1 < state.length && delta(state, base, i + 1) != 0))) {
+                i++;
+            }
+
+            length = putVarint(encoded, length, literalStart - zeroStart);
+            length = putVarint(encoded, length, i - literalStart);
+            for (int j = literalStart; j < i; j++) {
+                encoded[length++] = delta(state, base, j);
+            }
+        }
+
+        byte[] data = new byte[length];
+        System.arraycopy(encoded, 0, data, 0, length);
+        return data;
+    }
+
+    private static byte delta(byte[] state, byte[] base, int i) {
+        return base == null ? state[i] : (byte) (state[i] ^ base[i]);
+    }
+
+    private static void decode(byte[] data, byte[] base, byte[] state) {
+        int position = 0;
+        int i = 0;
+
+        while (position < data.length) {
+            int zeroes = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data[position++];
+                zeroes |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+
+            int literals = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data[position++];
+                literals |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+
+            for (int end = i + zeroes; i < end; i++) {
+                state[i] = base == null ? 0 : base[i];
+            }
+            for (int end = i + literals; i < end; i++) {
+                byte literal = data[position++];
+                state[i] = base == null ? literal : (byte) (literal ^ base[i]);
+            }
+        }
+    }
+
+    private static int putVarint(byte[] buffer, int position, int value) {
+        while (value >= 0x80) {
+            buffer[position++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+
+        return position;
+    }
+
+
+    public String getStats() {
+        return String.format("Rewind buffer: %d frames (%.1fs) in %d KB of %d KB, %.0f bytes per frame, %.1fus per " +
+                        "capture", entries.size(), entries.size() / 60.0, size / 1024, capacity / 1024,
+                captures > 0 ? (double) capturedBytes / captures : 0.0,
+                captures > 0 ? captureNanos / 1000.0 / captures : 0.0);
+    }
+
+}
@@ -0,0 +1,104 @@
+package me.sudsey.chip8.interpret;
+
+// The contents of memory right after loading a ROM: the font at 0x000, then the ROM itself from 0x200, split into
+// MemoryPages. Every page is shared, so any number of Memories can load the same image (see Memory.loadImage()) and
+// each only copies the pages it goes on to write to. The font page and the all-zero page are the same in every image.
+
+public class RomImage {
+
+    // The hexadecimal digit sprites, 5 bytes each. See LD_F_Vx.
+    private static final int[] DIGIT_SPRITES = new int[] {
+            0xF0, 0x90, 0x90, 0x90, 0xF0, // 0
+            0x20, 0x60, 0x20, 0x20, 0x70, // 1
+            0xF0, 0x10, 0xF0, 0x80, 0xF0, // 2
+            0xF0, 0x10, 0xF0, 0x10, 0xF0, // 3
+            0x90, 0x90, 0xF0, 0x10, 0x10, // 4
+            0xF0, 0x80, 0xF0, 0x10, 0xF0, // 5
+            0xF0, 0x80, 0xF0, 0x90, 0xF0, // 6
+            0xF0, 0x10, 0x20, 0x40, 0x40, // 7
+            0xF0, 0x90, 0xF0, 0x90, 0xF0, // 8
+            0xF0, 0x90, 0xF0, 0x10, 0xF0, // 9
+            0xF0, 0x90, 0xF0, 0x90, 0x90, // A
+            0xE0, 0x90, 0xE0, 0x90, 0xE0, // B
+            0xF0, 0x80, 0x80, 0x80, 0xF0, // C
+            0xE0, 0x90, 0x90, 0x90, 0xE0, // D
+            0xF0, 0x80, 0xF0, 0x80, 0xF0, // E
+            0xF0, 0x80, 0xF0, 0x80, 0x80, // F
+    };
+
+    static final MemoryPage ZERO_PAGE = MemoryPage.createShared(new byte[MemoryPage.SIZE]);
+    static final MemoryPage FONT_PAGE = createFontPage();
+
+    // Just the font, i.e. memory before any ROM is loaded
+    public static final RomImage EMPTY = new RomImage(new byte[0]);
+
+
+    private MemoryPage[] pages;
+    private int length; // Bytes of the ROM in the image, at most Memory.MAX_ROM_SIZE
+
+    // Anything past Memory.MAX_ROM_SIZE bytes is left out
+    public RomImage(byte[] rom) {
+        this.pages = new MemoryPage[Memory.SIZE / MemoryPage.SIZE];
+        this.length = Math.min(rom.length, Memory.MAX_ROM_SIZE);
+
+        for (int i = 0; i < pages.length; i++) {
+            int start = i * MemoryPage.SIZE - Memory.ROM_START; // Offset of the page in the ROM
+
+            if (start < 0) {
+                pages[i] = i == 0 ? FONT_PAGE : ZERO_PAGE;
+            } else if (start >= length) {
+                pages[i] = ZERO_PAGE;
+            } else {
+                byte[] bytes = new byte[MemoryPage.SIZE];
+                System.arraycopy(rom, start, bytes, 0, Math.min(length - start, MemoryPage.SIZE));
+
+                MemoryPage page = MemoryPage.createShared(bytes);
+                pages[i] = page.isZero() ? ZERO_PAGE : page;
+            }
+        }
+    }
+
+
+    private static MemoryPage createFontPage() {
+        byte[] bytes = new byte[MemoryPage.SIZE];
+        for (int i = 0; i < DIGIT_SPRITES.length; i++) {
+            bytes[i] = (byte) DIGIT_SPRITES[i];
+        }
+
+        return MemoryPage.createShared(bytes);
+    }
+
+
+    MemoryPage getPage(int index) {
+        return pages[index];
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    // Pages of ROM in the image, as opposed to the font and zero pages every image has
+    public int getRomPages() {
+        int count = 0;
+        for (MemoryPage page : pages) {
+            if (page != ZERO_PAGE && page != FONT_PAGE) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    // Rough heap size of the image, not counting the font and zero pages
+    public long getFootprint() {
+        long footprint = Footprint.object(Footprint.REFERENCE + 4) + Footprint.array(pages.length, Footprint.REFERENCE);
+        for (MemoryPage page : pages) {
+            if (page != ZERO_PAGE && page != FONT_PAGE) {
+                footprint += page.getFootprint();
+            }
+        }
+
+        return footprint;
+    }
+
+}
@@ -0,0 +1,86 @@
+package me.sudsey.chip8.interpret;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+// A snapshot of a whole machine, as a compact big-endian binary blob:
+//
+//     "C8SS", version (1 byte)
+//     V0-VF (16 bytes), I (2), DT (1), ST (1), PC (2), SP (1), stack (16 x 2)
+//     RND state (8), waiting for key (1), instructions (8), frames (8), timer budget (4), block budget (4)
+//     memory (4096 x 1)
+//     display (32 rows x 8)
+//     held keys (2, one bit per key), pending key press (1, -1 if none), instructions when it was pressed (8)
+//
+// About 4.5KB in all. Bump VERSION whenever the layout changes; older states are rejected rather than misread.
+
+class SaveState {
+
+    private static final int MAGIC = 0x43385353; // "C8SS"
+    private static final int VERSION = 2;
+
+    static final int SIZE = 4 + 1
+            + 16 + 2 + 1 + 1 + 2 + 1 + 16 * 2
+            + 8 + 1 + 8 + 8 + 4 + 4
+            + Memory.SIZE
+            + 32 * 8
+            + 2 + 1 + 8;
+
+
+    // Must be called on the thread running the processor, or while it's stopped
+    static byte[] capture(Processor processor, Memory memory, VirtualDisplay display, VirtualKeyboard keyboard) {
+        byte[] state = new byte[SIZE];
+        capture(state, processor, memory, display, keyboard);
+
+        return state;
+    }
+
+    // As above, into an existing array of SIZE bytes
+    static void capture(byte[] state, Processor processor, Memory memory, VirtualDisplay display,
+                        VirtualKeyboard keyboard) {
+        ByteBuffer buffer = ByteBuffer.wrap(state);
+
+        writeHeader(buffer);
+        processor.writeState(buffer);
+        memory.writeState(buffer);
+        display.writeState(buffer);
+        keyboard.writeState(buffer);
+    }
+
+    // For anything else writing states in this layout, i.e. LockstepBatch's lanes
+    static void writeHeader(ByteBuffer buffer) {
+        buffer.putInt(MAGIC);
+        buffer.put((byte) VERSION);
+    }
+
+    // As capture(). The header and size are checked before anything is touched, so a bad state leaves the machine as
+    // it was.
+    static void restore(byte[] state, Processor processor, Memory memory, VirtualDisplay display,
+                        VirtualKeyboard keyboard) {
+        ByteBuffer buffer = ByteBuffer.wrap(state);
+
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a save state");
+            }
+
+            int version = buffer.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported save state version " + version + ", expected " +
+                        VERSION);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Not a save state");
+        }
+
+        if (state.length != SIZE) {
+            throw new IllegalArgumentException("Save state is " + state.length + " bytes, expected " + SIZE);
+        }
+
+        processor.readState(buffer);
+        memory.readState(buffer);
+        display.readState(buffer);
+        keyboard.readState(buffer);
+    }
+
+}
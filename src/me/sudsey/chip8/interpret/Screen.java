@@ -0,0 +1,13 @@
+package me.sudsey.chip8.interpret;
+
+// Receives frames from the VirtualDisplay, as one long per row with x = 0 in the most significant bit. Kept free of any
+// LWJGL types so the interpreter core can run without a window.
+
+public interface Screen {
+
+    Screen NONE = display -> { };
+
+
+    void setDisplay(long[] display);
+
+}
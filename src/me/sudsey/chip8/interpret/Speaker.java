@@ -9,7 +9,7 @@ import java.nio.ShortBuffer;
 import static org.lwjgl.openal.AL10.*;
 import static org.lwjgl.openal.ALC10.*;
 
-public class Speaker {
+public class Speaker implements Buzzer {
 
     private long device;
     private long context;
@@ -40,10 +40,12 @@ public class Speaker {
         alSourcePlay(source);
     }
 
+    @Override
     public void startPlaying() {
         alSourcef(source, AL_GAIN, 0.2f);
     }
 
+    @Override
     public void stopPlaying() {
         alSourcef(source, AL_GAIN, 0.0f);
     }
@@ -1,30 +1,62 @@
 package me.sudsey.chip8.interpret;
 
-import org.lwjgl.BufferUtils;
 import org.lwjgl.glfw.GLFWErrorCallback;
-import org.lwjgl.glfw.GLFWKeyCallbackI;
 import org.lwjgl.opengl.GL;
 
-import java.nio.FloatBuffer;
+import java.util.Arrays;
 
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL11.*;
 
 // Most of the graphics code in this class is pretty poor. I'm still trying to work my head around how OpenGL works.
-// Using synchronised() { } is also really slow I think
 
-public class Terminal {
+public class Terminal implements Screen {
+
+    // Indexed by GLFW key code, -1 where the key isn't mapped. An array rather than a map, so key events don't box.
+    private static int[] qwertyToChip8Key;
+
+    static {
+        qwertyToChip8Key = new int[GLFW_KEY_LAST + 1];
+        Arrays.fill(qwertyToChip8Key, -1);
+
+        qwertyToChip8Key[GLFW_KEY_1] = 0x1;
+        qwertyToChip8Key[GLFW_KEY_2] = 0x2;
+        qwertyToChip8Key[GLFW_KEY_3] = 0x3;
+        qwertyToChip8Key[GLFW_KEY_4] = 0xC;
+        qwertyToChip8Key[GLFW_KEY_Q] = 0x4;
+        qwertyToChip8Key[GLFW_KEY_W] = 0x5;
+        qwertyToChip8Key[GLFW_KEY_E] = 0x6;
+        qwertyToChip8Key[GLFW_KEY_R] = 0xD;
+        qwertyToChip8Key[GLFW_KEY_A] = 0x7;
+        qwertyToChip8Key[GLFW_KEY_S] = 0x8;
+        qwertyToChip8Key[GLFW_KEY_D] = 0x9;
+        qwertyToChip8Key[GLFW_KEY_F] = 0xE;
+        qwertyToChip8Key[GLFW_KEY_Z] = 0xA;
+        qwertyToChip8Key[GLFW_KEY_X] = 0x0;
+        qwertyToChip8Key[GLFW_KEY_C] = 0xB;
+        qwertyToChip8Key[GLFW_KEY_V] = 0xF;
+    }
+
 
     private long window;
 
-    private final boolean[][] pixels;
-    private float[][] display;
-    private FloatBuffer textureBuffer;
+    private KeyInput keyboard;          // null while nothing should hear the keys, e.g. when replaying input
+    private Runnable[] hotkeys;         // Indexed by GLFW key code like qwertyToChip8Key, null where there's no hotkey
+    private Runnable[] hotkeyReleases;  // Likewise, for hotkeys that also do something when released
+
+    private FrameExchange frames;
+    private long[] pixels;          // Latest frame from the exchange, one long per row as in VirtualDisplay
+    private DisplayTexture texture;
+
+    private TerminalMetrics metrics; // null unless enableMetrics() was called
 
     public Terminal() {
-        this.pixels = new boolean[64][32];
-        this.display = new float[64][32];
-        this.textureBuffer = BufferUtils.createFloatBuffer(64 * 32 * 4);
+        this.hotkeys = new Runnable[GLFW_KEY_LAST + 1];
+        this.hotkeyReleases = new Runnable[GLFW_KEY_LAST + 1];
+
+        this.frames = new FrameExchange();
+        this.pixels = new long[32];
+        this.texture = new DisplayTexture();
     }
 
 
@@ -46,6 +78,10 @@ public class Terminal {
             glViewport(0, 0, width, height)
         );
 
+        glfwSetKeyCallback(window, (window, key, scancode, action, mods) ->
+            handleKey(key, action)
+        );
+
         glfwMakeContextCurrent(window);
         glfwSwapInterval(1);
 
@@ -57,8 +93,8 @@ public class Terminal {
         glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
         glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
 
-        buildBufferFromDisplay();
-        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, 64, 32, 0, GL_RGBA, GL_FLOAT, textureBuffer);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGB, DisplayTexture.WIDTH, DisplayTexture.HEIGHT, 0, GL_RGB,
+                GL_UNSIGNED_BYTE, texture.getBuffer());
     }
 
     public void start() {
@@ -67,20 +103,16 @@ public class Terminal {
         while (!glfwWindowShouldClose(window)) {
             glClear(GL_COLOR_BUFFER_BIT);
 
-            synchronized (pixels) {
-                for (int i = 0; i < 64; i++) {
-                    for (int j = 0; j < 32; j++) {
-                        if (pixels[i][j]) {
-                            display[i][j] = 1.0f;
-                        } else if (display[i][j] > 0.1f) {
-                            display[i][j] -= 0.5f;
-                        }
-                    }
-                }
+            long[] frame = frames.poll();
+            if (frame != null) {
+                pixels = frame;
             }
 
-            buildBufferFromDisplay();
-            glTexSubImage2D(GL_TEXTURE_2D, 0, 0, 0, 64, 32, GL_RGBA, GL_FLOAT, textureBuffer);
+            // The texture keeps its contents between frames, so it only needs uploading when something changed
+            if (texture.update(pixels, frame != null)) {
+                glTexSubImage2D(GL_TEXTURE_2D, 0, 0, 0, DisplayTexture.WIDTH, DisplayTexture.HEIGHT, GL_RGB,
+                        GL_UNSIGNED_BYTE, texture.getBuffer());
+            }
 
             glBegin(GL_TRIANGLE_STRIP);
             glTexCoord2f(0, 0);
@@ -94,6 +126,9 @@ public class Terminal {
             glEnd();
 
             glfwSwapBuffers(window);
+            if (metrics != null) {
+                metrics.countRedraw(frame != null);
+            }
             glfwPollEvents();
         }
 
@@ -102,36 +137,61 @@ public class Terminal {
     }
 
 
-    public void setKeyCallbacks(GLFWKeyCallbackI callback) {
-        glfwSetKeyCallback(window, callback);
-    }
+    private void handleKey(int qwertyKey, int action) {
+        if (qwertyKey < 0 || qwertyKey > GLFW_KEY_LAST) {
+            return;
+        }
 
-    public void setDisplay(boolean[][] display) {
-        synchronized (pixels) {
-            for (int i = 0; i < 64; i++) {
-                System.arraycopy(display[i], 0, pixels[i], 0, 32);
+        if (hotkeys[qwertyKey] != null) {
+            if (action == GLFW_PRESS) {
+                hotkeys[qwertyKey].run();
+            } else if (action == GLFW_RELEASE && hotkeyReleases[qwertyKey] != null) {
+                hotkeyReleases[qwertyKey].run();
             }
+            return;
         }
-    }
 
+        int chip8Key = qwertyToChip8Key[qwertyKey];
 
-    private void buildBufferFromDisplay() {
-        textureBuffer.clear();
-
-        for (int y = 0; y < 32; y++) {
-            for (int x = 0; x < 64; x++) {
-                textureBuffer.put(0.561f + -0.439f * sqrtLog2(display[x][y] + 1));
-                textureBuffer.put(0.62f + -0.479f * sqrtLog2(display[x][y] + 1));
-                textureBuffer.put(0.4f + -0.361f * sqrtLog2(display[x][y] + 1));
-                textureBuffer.put(0.0f);
+        if (chip8Key != -1 && keyboard != null) {
+            if (action == GLFW_PRESS) {
+                keyboard.pressKey(chip8Key);
+            } else if (action == GLFW_RELEASE) {
+                keyboard.releaseKey(chip8Key);
             }
         }
+    }
+
 
-        textureBuffer.flip();
+    public void setKeyboard(KeyInput keyboard) {
+        this.keyboard = keyboard;
     }
 
-    private float sqrtLog2(float x) {
-        return (float) Math.sqrt(Math.log(x) / Math.log(2));
+    // Runs action on the window's thread whenever the given GLFW key is pressed. Anything touching the machine should
+    // hand itself over to the processor thread, see Processor.post().
+    public void setHotkey(int qwertyKey, Runnable action) {
+        hotkeys[qwertyKey] = action;
+    }
+
+    // As above, for keys that are held down
+    public void setHotkey(int qwertyKey, Runnable pressAction, Runnable releaseAction) {
+        hotkeys[qwertyKey] = pressAction;
+        hotkeyReleases[qwertyKey] = releaseAction;
+    }
+
+    // Counts frames published and rendered, and times redraws, from now on
+    public TerminalMetrics enableMetrics() {
+        metrics = new TerminalMetrics();
+        return metrics;
+    }
+
+    @Override
+    public void setDisplay(long[] display) {
+        frames.publish(display);
+
+        if (metrics != null) {
+            metrics.countPublished();
+        }
     }
 
 }
@@ -0,0 +1,99 @@
+package me.sudsey.chip8.interpret;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// What reaches the window, for watching over JMX alongside ProcessorMetrics. The processor publishes a frame every
+// time the display changes, which can be many times between two redraws of the window; the render thread only ever
+// shows the latest, so the difference between frames published and rendered is how many were never seen. Frame time
+// is the time between buffer swaps, so with vsync on it should sit at the monitor's refresh interval.
+
+public class TerminalMetrics implements TerminalMetricsMBean {
+
+    private LongAdder published; // Added to on the processor thread
+    private LongAdder rendered;  // and these on the render thread
+    private LongAdder redraws;
+
+    private Rate publishedRate;
+    private Rate renderedRate;
+    private Rate redrawRate;
+
+    private LatencyHistogram frameTime;
+    private long lastSwap; // Only touched on the render thread
+
+    public TerminalMetrics() {
+        this.published = new LongAdder();
+        this.rendered = new LongAdder();
+        this.redraws = new LongAdder();
+
+        this.publishedRate = new Rate(published::sum);
+        this.renderedRate = new Rate(rendered::sum);
+        this.redrawRate = new Rate(redraws::sum);
+
+        this.frameTime = new LatencyHistogram();
+    }
+
+
+    // Called by Terminal
+
+    void countPublished() {
+        published.increment();
+    }
+
+    // After every buffer swap, with whether a new frame was shown
+    void countRedraw(boolean newFrame) {
+        long now = System.nanoTime();
+        if (lastSwap != 0) {
+            frameTime.record(now - lastSwap);
+        }
+        lastSwap = now;
+
+        redraws.increment();
+        if (newFrame) {
+            rendered.increment();
+        }
+    }
+
+
+    @Override
+    public long getFramesPublished() {
+        return published.sum();
+    }
+
+    @Override
+    public double getFramesPublishedPerSecond() {
+        return publishedRate.get();
+    }
+
+    @Override
+    public long getFramesRendered() {
+        return rendered.sum();
+    }
+
+    @Override
+    public double getFramesRenderedPerSecond() {
+        return renderedRate.get();
+    }
+
+    // Published, but replaced by a later frame before the window was redrawn
+    @Override
+    public long getFramesDropped() {
+        return Math.max(published.sum() - rendered.sum(), 0);
+    }
+
+    @Override
+    public long getRedraws() {
+        return redraws.sum();
+    }
+
+    @Override
+    public double getRedrawsPerSecond() {
+        return redrawRate.get();
+    }
+
+
+    // Registered as an MBean of its own, see Interpreter
+    public LatencyHistogram getFrameTime() {
+        return frameTime;
+    }
+
+}
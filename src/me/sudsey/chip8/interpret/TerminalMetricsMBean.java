@@ -0,0 +1,21 @@
+package me.sudsey.chip8.interpret;
+
+// See TerminalMetrics. Rates are per second of wall clock time.
+
+public interface TerminalMetricsMBean {
+
+    long getFramesPublished();
+
+    double getFramesPublishedPerSecond();
+
+    long getFramesRendered();
+
+    double getFramesRenderedPerSecond();
+
+    long getFramesDropped();
+
+    long getRedraws();
+
+    double getRedrawsPerSecond();
+
+}
@@ -1,52 +1,120 @@
 package me.sudsey.chip8.interpret;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 public class VirtualDisplay {
 
-    private Terminal terminal;
+    private Screen screen;
 
-    private boolean[][] display;
+    // One long per row, with x = 0 in the most significant bit, so a whole 8-pixel sprite row can be XORed in at once.
+    private long[] display;
 
-    public VirtualDisplay(Terminal terminal) {
-        this.terminal = terminal;
+    public VirtualDisplay(Screen screen) {
+        this.screen = screen;
 
+        this.display = new long[32];
         clear();
     }
 
 
     public void clear() {
-        display = new boolean[64][32];
+        Arrays.fill(display, 0);
 
         push();
     }
 
-    public boolean drawSprite(int xStart, int yStart, int[] sprite, boolean clipEdges) {
-        boolean collision = false;
+    // The sprite is read straight out of memory (n bytes starting at address) rather than copied out first, so drawing
+    // doesn't allocate. Bytes past the end of memory are drawn as 0.
+    //
+    // Each sprite byte is moved into place within its row with a single shift, or a rotate when wrapping, so pixels
+    // past the right edge come back in on the left. Any bit set in both the row and the sprite means a collision.
+    public boolean drawSprite(int xStart, int yStart, Memory memory, int address, int n, boolean clipEdges) {
+        if (clipEdges && xStart >= 64) {
+            push();
+            return false;
+        }
+
+        long collisions = 0;
+
+        for (int i = 0; i < n; i++) {
+            int yPos = yStart + i;
+
+            if (clipEdges && yPos >= 32) {
+                break;
+            }
+
+            long spriteRow = (long) memory.getLocationOrZero(address + i) << 56;
+            long bits = clipEdges ? spriteRow >>> xStart : Long.rotateRight(spriteRow, xStart);
+
+            long row = display[yPos % 32];
+            collisions |= row & bits;
+            display[yPos % 32] = row ^ bits;
+        }
 
-        for (int i = 0; i < sprite.length; i++) {
-            for (int j = 0; j < 8; j++) {
-                int xPos = xStart + j;
-                int yPos = yStart + i;
+        push();
+        return collisions != 0;
+    }
 
-                if (clipEdges && (xPos >= 64 || yPos >= 32)) {
-                    continue;
-                }
 
-                boolean togglePixel = (sprite[i] & (1 << (7 - j))) != 0;
+    public boolean isPixelSet(int x, int y) {
+        return ((display[y] >>> (63 - x)) & 1) != 0;
+    }
 
-                if (display[xPos % 64][yPos % 32] && togglePixel) {
-                    collision = true;
-                }
-                display[xPos % 64][yPos % 32] ^= togglePixel;
+    public boolean isBlank() {
+        for (long row : display) {
+            if (row != 0) {
+                return false;
             }
         }
+        return true;
+    }
+
+    public void copyFrom(VirtualDisplay other) {
+        System.arraycopy(other.display, 0, display, 0, 32);
+
+        push();
+    }
+
+    public boolean contentEquals(VirtualDisplay other) {
+        return Arrays.equals(display, other.display);
+    }
+
+    long getFootprint() {
+        return Footprint.object(2 * Footprint.REFERENCE) + Footprint.array(32, 8);
+    }
+
+    void writeState(ByteBuffer buffer) {
+        for (long row : display) {
+            buffer.putLong(row);
+        }
+    }
+
+    void readState(ByteBuffer buffer) {
+        for (int y = 0; y < 32; y++) {
+            display[y] = buffer.getLong();
+        }
 
         push();
-        return collision;
+    }
+
+    // 64-bit FNV-1a over the rows. Unlike hashCode(), this is meant to be written down and compared between runs.
+    public long getContentHash() {
+        long hash = 0xCBF29CE484222325L;
+
+        for (long row : display) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                hash ^= (row >>> shift) & 0xFF;
+                hash *= 0x100000001B3L;
+            }
+        }
+
+        return hash;
     }
 
 
     private void push() {
-        terminal.setDisplay(display);
+        screen.setDisplay(display);
     }
 
 }
@@ -1,62 +1,36 @@
 package me.sudsey.chip8.interpret;
 
-import java.util.HashMap;
-
-import static org.lwjgl.glfw.GLFW.*;
-
-public class VirtualKeyboard {
-
-    private static HashMap<Integer, Integer> qwertyToChip8Key;
-
-    static {
-        qwertyToChip8Key = new HashMap<>();
-        qwertyToChip8Key.put(GLFW_KEY_1, 0x1);
-        qwertyToChip8Key.put(GLFW_KEY_2, 0x2);
-        qwertyToChip8Key.put(GLFW_KEY_3, 0x3);
-        qwertyToChip8Key.put(GLFW_KEY_4, 0xC);
-        qwertyToChip8Key.put(GLFW_KEY_Q, 0x4);
-        qwertyToChip8Key.put(GLFW_KEY_W, 0x5);
-        qwertyToChip8Key.put(GLFW_KEY_E, 0x6);
-        qwertyToChip8Key.put(GLFW_KEY_R, 0xD);
-        qwertyToChip8Key.put(GLFW_KEY_A, 0x7);
-        qwertyToChip8Key.put(GLFW_KEY_S, 0x8);
-        qwertyToChip8Key.put(GLFW_KEY_D, 0x9);
-        qwertyToChip8Key.put(GLFW_KEY_F, 0xE);
-        qwertyToChip8Key.put(GLFW_KEY_Z, 0xA);
-        qwertyToChip8Key.put(GLFW_KEY_X, 0x0);
-        qwertyToChip8Key.put(GLFW_KEY_C, 0xB);
-        qwertyToChip8Key.put(GLFW_KEY_V, 0xF);
-    }
-
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
 
-    private Terminal terminal;
+public class VirtualKeyboard implements KeyInput {
 
     private boolean[] keys;
-    private int lastKey;
+    private int lastKeyPressed; // -1 when no press has happened since the last takeKeyPress()
+    private long pressStamp;    // When lastKeyPressed took effect, in instructions executed
 
-    public VirtualKeyboard(Terminal terminal) {
-        this.terminal = terminal;
+    private LongSupplier clock;     // Stamps presses, see setClock(). Every press is stamped 0 without one.
+    private volatile Thread waiter; // Unparked on every press, see setWaiter()
 
+    public VirtualKeyboard() {
         this.keys = new boolean[16];
+        this.lastKeyPressed = -1;
     }
 
 
-    public void init() {
-        terminal.setKeyCallbacks((window, qwertyKey, scancode, action, mods) -> {
-            Integer chip8Key = qwertyToChip8Key.get(qwertyKey);
-
-            if (chip8Key != null) {
-                synchronized (this) {
-                    if (action == GLFW_PRESS) {
-                        keys[chip8Key] = true;
-                        lastKey = chip8Key;
-                        this.notify();
-                    } else if (action == GLFW_RELEASE) {
-                        keys[chip8Key] = false;
-                    }
-                }
-            }
-        });
+    @Override
+    public synchronized void pressKey(int key) {
+        keys[key] = true;
+        lastKeyPressed = key;
+        pressStamp = clock != null ? clock.getAsLong() : 0;
+
+        LockSupport.unpark(waiter);
+    }
+
+    @Override
+    public synchronized void releaseKey(int key) {
+        keys[key] = false;
     }
 
 
@@ -64,12 +38,66 @@ public class VirtualKeyboard {
         return keys[x];
     }
 
-    public int waitForKey() throws InterruptedException {
-        synchronized (this) {
-            this.wait();
+    // Returns the key pressed since the last call, or -1 if there wasn't one. Used instead of blocking, so that
+    // waiting for a key never holds up the thread running the processor.
+    public synchronized int takeKeyPress() {
+        int key = lastKeyPressed;
+        lastKeyPressed = -1;
+
+        return key;
+    }
 
-            return lastKey;
+    // Forgets the pending press if it took effect before instruction stamp, so only later presses are taken
+    public synchronized void discardKeyPressBefore(long stamp) {
+        if (pressStamp < stamp) {
+            lastKeyPressed = -1;
         }
     }
 
+    // Whether takeKeyPress() would return a key, without taking it
+    public synchronized boolean hasKeyPress() {
+        return lastKeyPressed != -1;
+    }
+
+    // clock gives the number of instructions executed so far, which each press is stamped with as it takes effect
+    public void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    // thread is unparked whenever a key is pressed, so a processor parked while halted on LD_Vx_K can carry on straight
+    // away. An unpark that comes before the thread parks isn't lost: its park returns at once. null for none.
+    public void setWaiter(Thread thread) {
+        this.waiter = thread;
+    }
+
+
+    long getFootprint() {
+        return Footprint.object(3 * Footprint.REFERENCE + 4 + 8) + Footprint.array(16, 1);
+    }
+
+
+    // Held keys as a 16-bit mask, then the pending press and its stamp
+    synchronized void writeState(ByteBuffer buffer) {
+        int mask = 0;
+        for (int key = 0; key < 16; key++) {
+            if (keys[key]) {
+                mask |= 1 << key;
+            }
+        }
+
+        buffer.putShort((short) mask);
+        buffer.put((byte) lastKeyPressed);
+        buffer.putLong(pressStamp);
+    }
+
+    synchronized void readState(ByteBuffer buffer) {
+        int mask = buffer.getShort();
+        for (int key = 0; key < 16; key++) {
+            keys[key] = (mask & (1 << key)) != 0;
+        }
+
+        lastKeyPressed = buffer.get();
+        pressStamp = buffer.getLong();
+    }
+
 }
@@ -0,0 +1,152 @@
+package me.sudsey.chip8.pool;
+
+import me.sudsey.chip8.commons.Options;
+import me.sudsey.chip8.interpret.Buzzer;
+import me.sudsey.chip8.interpret.Machine;
+import me.sudsey.chip8.interpret.RomImage;
+import me.sudsey.chip8.interpret.Screen;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Lots of headless machines in one JVM, e.g. one per agent when training against a ROM.
+//
+// Machines that load the same ROM share a single RomImage, so each one only holds copies of the memory pages it has
+// written to. None of them has a thread of its own: runFrames() steps every machine on one fixed pool of worker
+// threads, in slices of machines, and returns once they've all caught up. A machine is only ever run by one worker at
+// a time, and nothing runs between calls, so in between the caller can touch any machine directly (press keys, save
+// states).
+
+public class MachinePool {
+
+    private static final int SLICES_PER_THREAD = 8; // Enough that one slow slice doesn't leave the other threads idle
+
+
+    private Options options;
+    private int threads;
+    private ExecutorService workers;
+
+    private Map<ByteBuffer, RomImage> images;           // By ROM contents
+    private List<Machine> machines;
+    private Map<Machine, RuntimeException> crashes;     // Crashed machines aren't run again
+
+    public MachinePool(Options options) {
+        if (options.isWallClockTimers()) {
+            throw new IllegalArgumentException("Pooled machines can't use --wall-clock-timers");
+        }
+
+        this.options = options;
+        this.threads = options.getThreads();
+        this.workers = Executors.newFixedThreadPool(threads);
+
+        this.images = new HashMap<>();
+        this.machines = new ArrayList<>();
+        this.crashes = new IdentityHashMap<>();
+    }
+
+
+    // Adds a machine running rom, with RND seeded by seed
+    public synchronized Machine add(byte[] rom, long seed) {
+        RomImage image = images.computeIfAbsent(ByteBuffer.wrap(rom.clone()), key -> new RomImage(rom));
+
+        Machine machine = new Machine(options, Screen.NONE, Buzzer.NONE);
+        machine.load(image, seed);
+        machines.add(machine);
+
+        return machine;
+    }
+
+    public synchronized void remove(Machine machine) {
+        machines.remove(machine);
+        crashes.remove(machine);
+    }
+
+    public synchronized int size() {
+        return machines.size();
+    }
+
+    // The exception that stopped machine, or null if it hasn't crashed
+    public synchronized RuntimeException getCrash(Machine machine) {
+        return crashes.get(machine);
+    }
+
+
+    // Runs every machine that hasn't crashed for another frames 60Hz frames, spread over the worker threads
+    public void runFrames(long frames) throws InterruptedException {
+        List<Machine> running;
+        synchronized (this) {
+            running = new ArrayList<>(machines);
+            running.removeAll(crashes.keySet());
+        }
+
+        int sliceSize = Math.max(1, running.size() / (threads * SLICES_PER_THREAD));
+
+        List<Callable<Void>> slices = new ArrayList<>();
+        for (int start = 0; start < running.size(); start += sliceSize) {
+            List<Machine> slice = running.subList(start, Math.min(start + sliceSize, running.size()));
+            slices.add(() -> {
+                runSlice(slice, frames);
+                return null;
+            });
+        }
+
+        try {
+            for (Future<Void> future : workers.invokeAll(slices)) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Worker failed", e.getCause());
+        }
+    }
+
+    private void runSlice(List<Machine> slice, long frames) {
+        for (Machine machine : slice) {
+            try {
+                machine.run(machine.getProcessor().getFrames() + frames, Long.MAX_VALUE);
+            } catch (RuntimeException e) {
+                // e.g. CALL past the 16th stack level, or RET with nothing on the stack
+                synchronized (this) {
+                    crashes.put(machine, e);
+                }
+            }
+        }
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+
+    public synchronized String getFootprintReport() {
+        long machineBytes = 0;
+        int privatePages = 0;
+        for (Machine machine : machines) {
+            machineBytes += machine.getFootprint();
+            privatePages += machine.getMemory().getPrivatePages();
+        }
+
+        long imageBytes = 0;
+        int romPages = 0;
+        for (RomImage image : images.values()) {
+            imageBytes += image.getFootprint();
+            romPages += image.getRomPages();
+        }
+
+        long perMachine = machines.isEmpty() ? 0 : machineBytes / machines.size();
+
+        return String.format("%d machines, ~%d bytes each (~%d per GB of heap), %d private pages between them%n" +
+                        "%d ROM image(s) shared between them, %d pages in %d KB",
+                machines.size(), perMachine, perMachine > 0 ? (1L << 30) / perMachine : 0, privatePages,
+                images.size(), romPages, imageBytes / 1024);
+    }
+
+}
@@ -0,0 +1,132 @@
+package me.sudsey.chip8.pool;
+
+import me.sudsey.chip8.commons.Options;
+import me.sudsey.chip8.interpret.LockstepBatch;
+import me.sudsey.chip8.interpret.Machine;
+import me.sudsey.chip8.interpret.RomImage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// Runs --machines copies of a ROM in a MachinePool, each with its own seed (--seed, --seed + 1, ...), a frame at a
+// time as an agent stepping them would. Reports the pool's footprint, estimated and as measured on the heap, and how
+// fast it ran. With --lockstep, the copies are lanes of a LockstepBatch instead.
+
+public class PoolRunner {
+
+    public static void run(Options options, Path romPath) {
+        byte[] rom;
+        try {
+            rom = Files.readAllBytes(romPath);
+        } catch (IOException e) {
+            System.err.println("Could not read ROM file. Error: " + e.toString());
+            return;
+        }
+
+        if (options.isLockstep()) {
+            runLockstep(options, rom);
+            return;
+        }
+
+        MachinePool pool;
+        try {
+            pool = new MachinePool(options);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+
+        long heapBefore = getUsedHeap();
+
+        List<Machine> machines = new ArrayList<>();
+        for (int i = 0; i < options.getMachines(); i++) {
+            machines.add(pool.add(rom, options.getSeed() + i));
+        }
+
+        long startTime = System.nanoTime();
+        try {
+            for (long frame = 0; frame < options.getFrames(); frame++) {
+                pool.runFrames(1);
+            }
+        } catch (InterruptedException e) {
+            System.err.println("Pool run interrupted");
+            return;
+        } finally {
+            pool.shutdown();
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        long heapUsed = getUsedHeap() - heapBefore;
+
+        long instructions = 0;
+        int crashed = 0;
+        int waiting = 0;
+        for (Machine machine : machines) {
+            instructions += machine.getProcessor().getInstructions();
+            if (pool.getCrash(machine) != null) {
+                crashed++;
+            } else if (machine.getProcessor().isWaitingForKey()) {
+                waiting++;
+            }
+        }
+
+        System.out.println(String.format("Ran %d machines for %d frames on %d threads in %.2fs (%.0f instructions " +
+                        "per second in total)", machines.size(), options.getFrames(), options.getThreads(),
+                elapsed / 1e9, instructions / (elapsed / 1e9)));
+        System.out.println(String.format("%d crashed, %d waiting for a key", crashed, waiting));
+        System.out.println(pool.getFootprintReport());
+        System.out.println(String.format("Measured %d KB of heap for the pool, ~%d bytes per machine",
+                heapUsed / 1024, heapUsed / Math.max(1, machines.size())));
+    }
+
+    private static void runLockstep(Options options, byte[] rom) {
+        LockstepBatch batch;
+        try {
+            batch = new LockstepBatch(options, new RomImage(rom), options.getMachines(), options.getSeed());
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        try {
+            for (long frame = 0; frame < options.getFrames(); frame++) {
+                batch.runFrames(1);
+            }
+        } catch (IllegalStateException e) {
+            // Only thrown when verifying
+            System.err.println(e.getMessage());
+            return;
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        int waiting = 0;
+        for (int lane = 0; lane < batch.getLanes(); lane++) {
+            if (batch.getCrash(lane) == null && batch.isWaitingForKey(lane)) {
+                waiting++;
+            }
+        }
+
+        System.out.println(String.format("Ran %d lanes for %d frames in lockstep in %.2fs (%.0f instructions per " +
+                        "second in total)", batch.getLanes(), options.getFrames(), elapsed / 1e9,
+                batch.getExecutedInstructions() / (elapsed / 1e9)));
+        System.out.println(String.format("%d crashed, %d waiting for a key", batch.getLanes() - batch.getLiveLanes(),
+                waiting));
+        System.out.println(batch.getStats());
+        if (options.isLockstepVerify()) {
+            System.out.println("Every lane matched the interpreter");
+        }
+    }
+
+    // Only roughly accurate, as System.gc() is a request
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
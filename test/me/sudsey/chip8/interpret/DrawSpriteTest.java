@@ -0,0 +1,55 @@
+package me.sudsey.chip8.interpret;
+
+import me.sudsey.chip8.commons.Options;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A sprite that runs off the end of memory draws its missing rows as 0 rather than crashing, as it did when sprites
+// were copied out with Arrays.copyOfRange. Run with the profiler on too, since it reads the same bytes.
+
+class DrawSpriteTest {
+
+    // LD I, 0xFFE; DRW V0, V0, 5; JP 0x204
+    private static final byte[] PAST_END = new byte[] {
+            (byte) 0xAF, (byte) 0xFE, (byte) 0xD0, 0x05, 0x12, 0x04
+    };
+
+
+    @Test
+    void drawsPastEndOfMemoryAsZero() {
+        checkPastEnd(false);
+    }
+
+    @Test
+    void profilesPastEndOfMemory() {
+        checkPastEnd(true);
+    }
+
+
+    private static void checkPastEnd(boolean profile) {
+        Machine machine = new Machine(Options.parseOptions(new String[0]), Screen.NONE, Buzzer.NONE);
+        machine.load(PAST_END);
+        machine.getMemory().setLocation(0xFFE, 0x80);
+        machine.getMemory().setLocation(0xFFF, 0x01);
+        if (profile) {
+            machine.enableProfiling();
+        }
+
+        machine.run(Long.MAX_VALUE, 10);
+
+        assertEquals(10, machine.getProcessor().getInstructions());
+
+        VirtualDisplay display = machine.getDisplay();
+        assertTrue(display.isPixelSet(0, 0));
+        assertTrue(display.isPixelSet(7, 1));
+        for (int y = 2; y < 5; y++) {
+            for (int x = 0; x < 8; x++) {
+                assertFalse(display.isPixelSet(x, y), "Pixel " + x + ", " + y);
+            }
+        }
+    }
+
+}
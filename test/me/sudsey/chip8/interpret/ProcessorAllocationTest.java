@@ -0,0 +1,60 @@
+package me.sudsey.chip8.interpret;
+
+import com.sun.management.ThreadMXBean;
+import me.sudsey.chip8.commons.Options;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// The processor's hot path shouldn't allocate at all: no copied sprite bytes, no fresh framebuffer on CLS, no boxed
+// random bytes. Checked by counting what this thread allocates over a million instructions of a loop that draws,
+// clears and rolls random numbers, once everything's been JIT compiled.
+
+class ProcessorAllocationTest {
+
+    private static final int INSTRUCTIONS = 1000000;
+    private static final int WARM_UP_RUNS = 20;
+
+    // CLS; RND V0, 0xFF; LD I, 0x000; DRW V0, V1, 5; ADD V1, 1; SKP V2; JP 0x200; JP 0x200
+    private static final int[] LOOP = new int[] {
+            0x00, 0xE0, 0xC0, 0xFF, 0xA0, 0x00, 0xD0, 0x15, 0x71, 0x01, 0xE2, 0x9E, 0x12, 0x00, 0x12, 0x00
+    };
+
+
+    @Test
+    void runDoesNotAllocate() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        Machine machine = new Machine(Options.parseOptions(new String[0]), Screen.NONE, Buzzer.NONE);
+        machine.load(toBytes(LOOP));
+
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            runInstructions(machine, INSTRUCTIONS);
+        }
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        runInstructions(machine, INSTRUCTIONS);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals(0, allocated, "Bytes allocated over " + INSTRUCTIONS + " instructions");
+    }
+
+
+    private static void runInstructions(Machine machine, long count) {
+        machine.run(Long.MAX_VALUE, machine.getProcessor().getInstructions() + count);
+    }
+
+    private static byte[] toBytes(int[] rom) {
+        byte[] bytes = new byte[rom.length];
+        for (int i = 0; i < rom.length; i++) {
+            bytes[i] = (byte) rom[i];
+        }
+        return bytes;
+    }
+
+}